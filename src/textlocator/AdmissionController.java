@@ -0,0 +1,311 @@
+package textlocator;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Gates concurrent detections against a heap budget, so that many large
+ * images arriving at once wait for memory instead of exhausting it.
+ * Each detection is admitted with its estimated footprint, see
+ * estimateFootprint, once the footprints of the detections in progress
+ * leave room for it. Detections are admitted in the order they asked, so
+ * large images are not starved by small ones.
+ * An image whose footprint exceeds the whole budget is processed in bands,
+ * see MultiresolutionTextPositionDetector.detectInBands, the band height
+ * being chosen so that the footprint of a band fits the budget.
+ * @author MX-Futhark
+ */
+public class AdmissionController {
+
+	/**
+	 * Share of the maximum heap size used as the budget by default.
+	 */
+	public static final float DEFAULT_HEAP_SHARE = 0.5f;
+
+	// size of an array header and of a reference, as on a 64-bit JVM with
+	// compressed references
+	private static final int ARRAY_HEADER_SIZE = 16;
+	private static final int REFERENCE_SIZE = 4;
+	// the waiting detections check their token every POLL_MS milliseconds
+	private static final long POLL_MS = 10;
+
+	private final long budget;
+	private long used = 0;
+	// detections waiting to be admitted, in order
+	private final ArrayDeque<Object> waiting = new ArrayDeque<>();
+
+	/**
+	 * Admitted footprint, to be released once the detection is done.
+	 * @author MX-Futhark
+	 */
+	public class Permit implements AutoCloseable {
+
+		private final long bytes;
+		private boolean released = false;
+
+		private Permit(long bytes) {
+			this.bytes = bytes;
+		}
+
+		/**
+		 * Getter on the admitted footprint.
+		 * @return The admitted footprint, in bytes.
+		 */
+		public long getBytes() {
+			return bytes;
+		}
+
+		/**
+		 * Releases the admitted footprint. Does nothing if already released.
+		 */
+		@Override
+		public void close() {
+			synchronized (AdmissionController.this) {
+				if (released) return;
+				released = true;
+				used -= bytes;
+				AdmissionController.this.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Constructor using DEFAULT_HEAP_SHARE of the maximum heap size.
+	 */
+	public AdmissionController() {
+		this(
+			(long) (Runtime.getRuntime().maxMemory() * DEFAULT_HEAP_SHARE)
+		);
+	}
+
+	/**
+	 * Constructor.
+	 * @param budget The total footprint of the concurrent detections, in
+	 *               bytes.
+	 */
+	public AdmissionController(long budget) {
+		if (budget <= 0) {
+			throw new IllegalArgumentException("invalid budget: " + budget);
+		}
+		this.budget = budget;
+	}
+
+	/**
+	 * Getter on the total footprint of the concurrent detections.
+	 * @return The budget, in bytes.
+	 */
+	public long getBudget() {
+		return budget;
+	}
+
+	/**
+	 * Getter on the footprint of the detections in progress.
+	 * @return The admitted footprint, in bytes.
+	 */
+	public synchronized long getUsed() {
+		return used;
+	}
+
+	/**
+	 * Estimates the peak memory allocated by a detection on a gray image,
+	 * including the gray image itself: the Sobel responses and the edge map
+	 * of global thresholding, then at each level the copy hiding the text
+	 * found so far, the scaled edge map, the map after local thresholding,
+	 * the text recovery map and the transposed map of vertical text. Levels
+	 * evaluated speculatively are counted together.
+	 * The images being arrays of rows, the estimate is close to the actual
+	 * allocations, but the garbage of a stage may still be in the heap
+	 * during the next one.
+	 * @param width The width of the image.
+	 * @param height The height of the image.
+	 * @param config The configuration of the detection.
+	 * @return The estimated footprint, in bytes.
+	 */
+	public static long estimateFootprint(int width, int height,
+		DetectorConfig config) {
+
+		long image = getImageBytes(width, height);
+
+		// the chroma path reads packed pixels without Sobel images
+		long globalStage = config.hasChromaEdges()
+			? (long) width * height * Integer.BYTES + image
+			: image * (config.getSobelDirections().length + 1);
+
+		PyramidSchedule schedule = config.getSchedule();
+		int copies = 2 + (config.hasTextRecovery() ? 1 : 0)
+			+ (config.getOrientation() == TextOrientation.HORIZONTAL
+				? 0 : 1);
+		long levelStage = 0;
+		for (int l = schedule.getMinLevel(); l <= schedule.getMaxLevel();
+			++l) {
+
+			float f = schedule.getScaleDownFactor(l);
+			long level = copies
+				* getImageBytes((int) (width / f), (int) (height / f));
+			levelStage = schedule.isSpeculative()
+				? levelStage + level
+				: Math.max(levelStage, level);
+		}
+		// the edge map, and the copy hiding the found text
+		levelStage += 2 * image;
+
+		return image + Math.max(globalStage, levelStage);
+	}
+
+	/**
+	 * Estimates the peak memory allocated by a detection in bands of the
+	 * given height, see MultiresolutionTextPositionDetector.detectInBands.
+	 * The image itself is not counted.
+	 * @param width The width of the image.
+	 * @param bandHeight The number of rows of each band, before the overlap.
+	 * @param config The configuration of the detection.
+	 * @return The estimated footprint, in bytes.
+	 */
+	public static long estimateBandFootprint(int width, int bandHeight,
+		DetectorConfig config) {
+
+		return estimateFootprint(
+			width,
+			bandHeight
+				+ 2 * (MultiresolutionTextPositionDetector.getBandOverlap(
+					config
+				) + MultiresolutionTextPositionDetector.getContextMargin(
+					config
+				)),
+			config
+		);
+	}
+
+	/**
+	 * Provides the height of the bands whose footprint fits a budget. The
+	 * height is halved until it fits.
+	 * @param width The width of the image.
+	 * @param height The height of the image.
+	 * @param budget The footprint available for a band, in bytes.
+	 * @param config The configuration of the detection.
+	 * @return The band height, or -1 if even a band as high as its overlap
+	 *         does not fit.
+	 */
+	public static int getBandHeight(int width, int height, long budget,
+		DetectorConfig config) {
+
+		int minBandHeight = Math.max(
+			1, MultiresolutionTextPositionDetector.getBandOverlap(config)
+		);
+		for (int bandHeight = height; bandHeight >= minBandHeight;
+			bandHeight /= 2) {
+
+			if (estimateBandFootprint(width, bandHeight, config) <= budget) {
+				return bandHeight;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Waits until a footprint fits the budget along with the detections in
+	 * progress, after the detections that asked earlier.
+	 * @param bytes The footprint, at most the budget.
+	 * @param token The token to stop waiting, e.g. after a deadline.
+	 * @return The permit to release once the detection is done.
+	 * @throws CancellationException if the token is cancelled before the
+	 *         footprint is admitted.
+	 */
+	public synchronized Permit acquire(long bytes, CancellationToken token) {
+
+		if (bytes > budget) {
+			throw new IllegalArgumentException(
+				"footprint " + bytes + " exceeds the budget " + budget
+			);
+		}
+
+		Object ticket = new Object();
+		waiting.addLast(ticket);
+		try {
+			while (waiting.peekFirst() != ticket || used + bytes > budget) {
+				token.check();
+				try {
+					wait(POLL_MS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new CancellationException("interrupted");
+				}
+			}
+			used += bytes;
+			return new Permit(bytes);
+		} finally {
+			waiting.remove(ticket);
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Applies the full multiresolution pipeline once its footprint is
+	 * admitted, in bands if the image does not fit the budget at once. Bands
+	 * are read from the gray image, so chroma edges are only supported when
+	 * the image fits.
+	 * @param rgbImg The input image in which to locate text.
+	 * @param config The configuration of the detection.
+	 * @param token The token to stop waiting or detecting, e.g. after a
+	 *              deadline.
+	 * @return The text areas found, possibly partial.
+	 * @throws IOException
+	 * @throws CancellationException if the token is cancelled before the
+	 *         detection starts.
+	 * @throws IllegalArgumentException if even the smallest bands do not fit
+	 *         the budget, or if bands are needed and the configuration has
+	 *         chroma edges.
+	 */
+	public DetectionResult apply(BufferedImage rgbImg, DetectorConfig config,
+		CancellationToken token) throws IOException {
+
+		int width = rgbImg.getWidth(), height = rgbImg.getHeight();
+
+		long footprint = estimateFootprint(width, height, config);
+		if (footprint <= budget) {
+			Permit permit = acquire(footprint, token);
+			try {
+				return TextPositionDetector.apply(rgbImg, config, token);
+			} finally {
+				permit.close();
+			}
+		}
+
+		// the bands read the pixels of the image without copying it
+		if (config.hasChromaEdges()) {
+			throw new IllegalArgumentException(
+				"image of " + width + "x" + height + " too large for the "
+				+ "budget " + budget + " with chroma edges"
+			);
+		}
+		int bandHeight = getBandHeight(width, height, budget, config);
+		if (bandHeight < 0) {
+			throw new IllegalArgumentException(
+				"image of " + width + "x" + height + " too large for the "
+				+ "budget " + budget
+			);
+		}
+		Permit permit = acquire(
+			estimateBandFootprint(width, bandHeight, config), token
+		);
+		try {
+			return MultiresolutionTextPositionDetector.detectInBands(
+				AwtAdapter.asGrayImage(
+					rgbImg, GrayImage.DesaturationMethod.LUMINANCE
+				),
+				bandHeight, config, token
+			);
+		} finally {
+			permit.close();
+		}
+	}
+
+	// size of a gray image stored as an array of rows
+	static long getImageBytes(int width, int height) {
+		return ARRAY_HEADER_SIZE + (long) height * REFERENCE_SIZE
+			+ height * (ARRAY_HEADER_SIZE + (long) width * Integer.BYTES);
+	}
+
+}
@@ -0,0 +1,208 @@
+package textlocator;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Conversions between the AWT types used by the public API and the types of
+ * the pipeline, which does not depend on AWT.
+ * @author MX-Futhark
+ */
+class AwtAdapter {
+
+	/**
+	 * Gray image converting the pixels of a BufferedImage when they are read.
+	 * Useful when only part of the image is processed.
+	 * @author MX-Futhark
+	 */
+	private static class BufferedGrayImage extends GrayImage {
+
+		private final BufferedImage rgbImg;
+		private final GrayImage.DesaturationMethod method;
+
+		public BufferedGrayImage(BufferedImage rgbImg,
+			GrayImage.DesaturationMethod method) {
+
+			this.rgbImg = rgbImg;
+			this.method = method;
+		}
+
+		@Override
+		public int getHeight() {
+			return rgbImg.getHeight();
+		}
+
+		@Override
+		public int getWidth() {
+			return rgbImg.getWidth();
+		}
+
+		@Override
+		public int getValue(int x, int y) {
+			return GrayImage.desaturate(rgbImg.getRGB(x, y), method);
+		}
+
+		@Override
+		public void setValue(int x, int y, int value) {
+			throw new UnsupportedOperationException("read-only image");
+		}
+	}
+
+	/**
+	 * Converts a color image into a gray image.
+	 * @param rgbImg The RGB image.
+	 * @param method The desaturation method.
+	 * @return The gray image.
+	 */
+	public static GrayImage toGrayImage(BufferedImage rgbImg,
+		GrayImage.DesaturationMethod method) {
+
+		GrayImage res = new GrayImage(rgbImg.getWidth(), rgbImg.getHeight());
+		int[] row = new int[rgbImg.getWidth()];
+
+		for (int j = 0; j < res.getHeight(); ++j) {
+			rgbImg.getRGB(0, j, row.length, 1, row, 0, row.length);
+			for (int i = 0; i < row.length; ++i) {
+				res.setValue(i, j, GrayImage.desaturate(row[i], method));
+			}
+		}
+
+		return res;
+	}
+
+	/**
+	 * Provides the pixels of a color image.
+	 * @param rgbImg The RGB image.
+	 * @return The pixels, packed as 0xRRGGBB integers, row by row.
+	 */
+	public static int[] getRgbPixels(BufferedImage rgbImg) {
+		return rgbImg.getRGB(
+			0, 0, rgbImg.getWidth(), rgbImg.getHeight(), null, 0,
+			rgbImg.getWidth()
+		);
+	}
+
+	/**
+	 * Provides a read-only gray view of a color image, whose pixels are only
+	 * converted when read. Copy the parts of the view to be read many times.
+	 * @param rgbImg The RGB image.
+	 * @param method The desaturation method.
+	 * @return The gray view.
+	 */
+	public static GrayImage asGrayImage(BufferedImage rgbImg,
+		GrayImage.DesaturationMethod method) {
+
+		return new BufferedGrayImage(rgbImg, method);
+	}
+
+	/**
+	 * Converts a gray image into a BufferedImage.
+	 * @param img The gray image.
+	 * @return The corresponding BufferedImage.
+	 */
+	public static BufferedImage toBufferedImage(GrayImage img) {
+		BufferedImage res = new BufferedImage(
+			img.getWidth(),
+			img.getHeight(),
+			BufferedImage.TYPE_INT_RGB
+		);
+
+		for (int j = 0; j < img.getHeight(); ++j) {
+			for (int i = 0; i < img.getWidth(); ++i) {
+				int value = Math.min(Math.max(img.getValue(i, j), 0), 255);
+				res.setRGB(i, j, (value << 16) | (value << 8) | value);
+			}
+		}
+
+		return res;
+	}
+
+	/**
+	 * Converts packed regions into rectangles.
+	 * @param regions The packed regions.
+	 * @return The corresponding rectangles.
+	 */
+	public static List<Rectangle> toRectangles(Regions regions) {
+
+		List<Rectangle> res = new LinkedList<>();
+
+		for (int i = 0; i < regions.size(); ++i) {
+			res.add(new Rectangle(
+				regions.getX(i), regions.getY(i),
+				regions.getWidth(i), regions.getHeight(i)
+			));
+		}
+
+		return res;
+	}
+
+	/**
+	 * Converts rectangles into packed regions.
+	 * @param rectangles The rectangles.
+	 * @return The corresponding packed regions.
+	 */
+	public static Regions toRegions(List<Rectangle> rectangles) {
+
+		Regions res = new Regions(rectangles.size());
+
+		for (Rectangle rectangle : rectangles) {
+			res.add(
+				(int) rectangle.getX(), (int) rectangle.getY(),
+				(int) rectangle.getWidth(), (int) rectangle.getHeight()
+			);
+		}
+
+		return res;
+	}
+
+	/**
+	 * Streams a whole image through the edge map computation.
+	 * @param rgbImg The RGB image.
+	 * @param method The desaturation method.
+	 * @param listener The listener to the rows of the resulting edge map.
+	 * @return The finished streaming edge map, holding the projections.
+	 */
+	public static StreamingEdgeMap stream(BufferedImage rgbImg,
+		GrayImage.DesaturationMethod method,
+		StreamingEdgeMap.RowListener listener) {
+
+		StreamingEdgeMap res =
+			new StreamingEdgeMap(rgbImg.getWidth(), method, listener);
+		int[] rgbRow = new int[rgbImg.getWidth()];
+
+		for (int j = 0; j < rgbImg.getHeight(); ++j) {
+			rgbImg.getRGB(0, j, rgbRow.length, 1, rgbRow, 0, rgbRow.length);
+			res.pushRgbRow(rgbRow);
+		}
+		res.finish();
+
+		return res;
+	}
+
+	/**
+	 * Draws the bounds of regions on an image.
+	 * @param img The image to draw on.
+	 * @param regions The regions to draw.
+	 * @param c The color of the bounds.
+	 */
+	public static void drawRegions(BufferedImage img, Regions regions,
+		Color c) {
+
+		Graphics2D graph = img.createGraphics();
+		graph.setColor(c);
+
+		for (int i = 0; i < regions.size(); ++i) {
+			graph.drawRect(
+				regions.getX(i), regions.getY(i),
+				regions.getWidth(i), regions.getHeight(i)
+			);
+		}
+
+		graph.dispose();
+	}
+
+}
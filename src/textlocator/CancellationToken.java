@@ -0,0 +1,96 @@
+package textlocator;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lets a caller stop a detection in progress, either explicitly or once a
+ * deadline has passed. The pipeline checks the token cooperatively in its
+ * pixel loops and region queue.
+ * @author MX-Futhark
+ */
+public class CancellationToken {
+
+	/**
+	 * Token that is never cancelled.
+	 */
+	public static final CancellationToken NONE =
+		new CancellationToken(null, false, 0);
+
+	// null if the token is not a child of another one
+	private final CancellationToken parent;
+	private final boolean hasDeadline;
+	private final long deadline;
+	private volatile boolean cancelled = false;
+
+	private CancellationToken(CancellationToken parent, boolean hasDeadline,
+		long deadline) {
+
+		this.parent = parent;
+		this.hasDeadline = hasDeadline;
+		this.deadline = deadline;
+	}
+
+	/**
+	 * Creates a token that is only cancelled by calling cancel.
+	 * @return The new token.
+	 */
+	public static CancellationToken create() {
+		return new CancellationToken(null, false, 0);
+	}
+
+	/**
+	 * Creates a token that is cancelled once the given time has elapsed, or
+	 * by calling cancel.
+	 * @param timeout The time after which the token is cancelled.
+	 * @param unit The unit of the timeout.
+	 * @return The new token.
+	 */
+	public static CancellationToken withTimeout(long timeout, TimeUnit unit) {
+		return new CancellationToken(
+			null, true, System.nanoTime() + unit.toNanos(timeout)
+		);
+	}
+
+	/**
+	 * Creates a token that is cancelled along with this one, or by calling
+	 * its own cancel method, e.g. to stop a part of the work only.
+	 * @return The new token.
+	 */
+	public CancellationToken createChild() {
+		return new CancellationToken(this, false, 0);
+	}
+
+	/**
+	 * Cancels the token.
+	 */
+	public void cancel() {
+		if (this == NONE) {
+			throw new UnsupportedOperationException(
+				"this token cannot be cancelled"
+			);
+		}
+		cancelled = true;
+	}
+
+	/**
+	 * Tells whether the token or its parent is cancelled or its deadline has
+	 * passed.
+	 * @return True if the work should stop.
+	 */
+	public boolean isCancelled() {
+		return cancelled || (hasDeadline && System.nanoTime() - deadline >= 0)
+			|| (parent != null && parent.isCancelled());
+	}
+
+	/**
+	 * Interrupts the current work if the token is cancelled.
+	 * @throws CancellationException if the token is cancelled.
+	 */
+	public void check() {
+		if (isCancelled()) {
+			throw new CancellationException();
+		}
+	}
+
+}
@@ -0,0 +1,123 @@
+package textlocator;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+
+/**
+ * Publishes the text areas of each level of the pyramid as soon as they are
+ * found. Each subscriber starts its own detection, and receives its items
+ * through a SubmissionPublisher, which handles the demand and buffering.
+ * The detection of a subscriber stops once it cancels its subscription:
+ * cancelling the subscription cancels the token of the detection at once.
+ * A detection failing, even with an Error, completes the subscriber
+ * exceptionally.
+ * @author MX-Futhark
+ */
+class DetectionPublisher implements Flow.Publisher<LevelResult> {
+
+	/**
+	 * Subscriber whose subscription also cancels the token of its detection.
+	 * @author MX-Futhark
+	 */
+	private static class CancellingSubscriber
+		implements Flow.Subscriber<LevelResult> {
+
+		private final Flow.Subscriber<? super LevelResult> subscriber;
+		private final CancellationToken token;
+
+		public CancellingSubscriber(
+			Flow.Subscriber<? super LevelResult> subscriber,
+			CancellationToken token) {
+
+			this.subscriber = subscriber;
+			this.token = token;
+		}
+
+		@Override
+		public void onSubscribe(Flow.Subscription subscription) {
+			subscriber.onSubscribe(new Flow.Subscription() {
+
+				@Override
+				public void request(long n) {
+					subscription.request(n);
+				}
+
+				@Override
+				public void cancel() {
+					token.cancel();
+					subscription.cancel();
+				}
+			});
+		}
+
+		@Override
+		public void onNext(LevelResult item) {
+			subscriber.onNext(item);
+		}
+
+		@Override
+		public void onError(Throwable throwable) {
+			subscriber.onError(throwable);
+		}
+
+		@Override
+		public void onComplete() {
+			subscriber.onComplete();
+		}
+	}
+
+	private final GrayImage grayImg;
+	private final DetectorConfig config;
+	private final Executor executor;
+
+	/**
+	 * Constructor.
+	 * @param grayImg The image in which to locate text.
+	 * @param config The configuration of the detections.
+	 * @param executor The executor running the detections and the delivery
+	 *                 of the items.
+	 */
+	public DetectionPublisher(GrayImage grayImg, DetectorConfig config,
+		Executor executor) {
+
+		this.grayImg = grayImg;
+		this.config = config;
+		this.executor = executor;
+	}
+
+	@Override
+	public void subscribe(Flow.Subscriber<? super LevelResult> subscriber) {
+
+		SubmissionPublisher<LevelResult> publisher = new SubmissionPublisher<>(
+			executor, Flow.defaultBufferSize()
+		);
+		CancellationToken token = CancellationToken.create();
+		publisher.subscribe(new CancellingSubscriber(subscriber, token));
+
+		executor.execute(() -> {
+			try {
+				MultiresolutionTextPositionDetector.detect(
+					grayImg, config,
+					(level, scaleDownFactor, textAreas) -> {
+						// the subscriber is gone once it cancels
+						if (!publisher.hasSubscribers()) {
+							token.cancel();
+							return;
+						}
+						publisher.submit(
+							new LevelResult(level, scaleDownFactor, textAreas)
+						);
+					},
+					token
+				);
+				publisher.close();
+			} catch (Throwable e) {
+				// the subscriber would wait forever otherwise
+				publisher.closeExceptionally(e);
+				if (e instanceof Error) throw (Error) e;
+			}
+		});
+	}
+
+}
@@ -0,0 +1,56 @@
+package textlocator;
+
+import java.awt.Rectangle;
+import java.util.List;
+
+/**
+ * Text areas found by a detection that may have been cancelled.
+ * @author MX-Futhark
+ */
+public class DetectionResult {
+
+	private final Regions regions;
+	private final boolean partial;
+
+	/**
+	 * Constructor.
+	 * @param regions The found text areas.
+	 * @param partial True if the detection was stopped before its end.
+	 */
+	DetectionResult(Regions regions, boolean partial) {
+		this.regions = regions;
+		this.partial = partial;
+	}
+
+	/**
+	 * Getter on the found text areas.
+	 * @return A copy of the text areas found until the detection ended or was
+	 *         stopped.
+	 */
+	public Regions getRegions() {
+		return new Regions(regions.toArray());
+	}
+
+	/**
+	 * Getter on the found text areas, as AWT rectangles.
+	 * @return The text areas found until the detection ended or was stopped.
+	 */
+	public List<Rectangle> getTextAreas() {
+		return AwtAdapter.toRectangles(regions);
+	}
+
+	/**
+	 * Tells whether the detection was stopped before its end, in which case
+	 * some text areas may be missing.
+	 * @return True if the result is partial.
+	 */
+	public boolean isPartial() {
+		return partial;
+	}
+
+	@Override
+	public String toString() {
+		return (partial ? "partial " : "") + regions;
+	}
+
+}
@@ -0,0 +1,731 @@
+package textlocator;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tuning of a detection: the resolutions to work with, the orientation of
+ * the text and the parameters of edge detection and region detection.
+ * Instances are immutable and can be shared by concurrent detections, so
+ * that cheap and accurate detections can run side by side. The values
+ * derived from the parameters are computed once per instance.
+ * The size of the local thresholding kernels and of the text labeling
+ * rectangles are not part of it: they define the grids the areas of
+ * interest and the fused level maps are aligned on, see EdgeMap.
+ * @author MX-Futhark
+ */
+public final class DetectorConfig {
+
+	/**
+	 * Determines how the edges of a row or column are summed up during region
+	 * detection.
+	 * @author MX-Futhark
+	 */
+	public enum Projection {
+		/** Sums the strength of the edges. */
+		EDGE_STRENGTH,
+		/** Counts the edge pixels, an edge being worth the maximal strength. */
+		EDGE_COUNT
+	}
+
+	/**
+	 * Mutable copy of the parameters of a configuration, so that each withX
+	 * method only sets the parameters it changes. The derived values are
+	 * computed by build.
+	 * @author MX-Futhark
+	 */
+	private static final class Builder {
+
+		private PyramidSchedule schedule;
+		private TextOrientation orientation;
+		private boolean diagonalEdges;
+		private boolean chromaEdges;
+		private boolean textRecovery;
+		private float[][] hysteresisMask;
+		private Projection projection;
+		private float edgeCorrectionFactor;
+		private float edgeThresholdFactor;
+		private int minFontSize;
+		private int maxFontSize;
+		private float peakValleyThresholdFactor;
+		private int horizontalPeakThreshold;
+		private int verticalPeakThreshold;
+		private int horizontalMergeableHoleSize;
+		private int verticalMergeableHoleSize;
+		private float minCharAspectRatio;
+
+		public Builder() {
+		}
+
+		public Builder(DetectorConfig config) {
+			this.schedule = config.schedule;
+			this.orientation = config.orientation;
+			this.diagonalEdges = config.diagonalEdges;
+			this.chromaEdges = config.chromaEdges;
+			this.textRecovery = config.textRecovery;
+			this.hysteresisMask = config.hysteresisMask;
+			this.projection = config.projection;
+			this.edgeCorrectionFactor = config.edgeCorrectionFactor;
+			this.edgeThresholdFactor = config.edgeThresholdFactor;
+			this.minFontSize = config.minFontSize;
+			this.maxFontSize = config.maxFontSize;
+			this.peakValleyThresholdFactor = config.peakValleyThresholdFactor;
+			this.horizontalPeakThreshold = config.horizontalPeakThreshold;
+			this.verticalPeakThreshold = config.verticalPeakThreshold;
+			this.horizontalMergeableHoleSize =
+				config.horizontalMergeableHoleSize;
+			this.verticalMergeableHoleSize = config.verticalMergeableHoleSize;
+			this.minCharAspectRatio = config.minCharAspectRatio;
+		}
+
+		public Builder schedule(PyramidSchedule schedule) {
+			this.schedule = schedule;
+			return this;
+		}
+
+		public Builder orientation(TextOrientation orientation) {
+			this.orientation = orientation;
+			return this;
+		}
+
+		public Builder diagonalEdges(boolean diagonalEdges) {
+			this.diagonalEdges = diagonalEdges;
+			return this;
+		}
+
+		public Builder chromaEdges(boolean chromaEdges) {
+			this.chromaEdges = chromaEdges;
+			return this;
+		}
+
+		public Builder textRecovery(boolean textRecovery) {
+			this.textRecovery = textRecovery;
+			return this;
+		}
+
+		public Builder projection(Projection projection) {
+			this.projection = projection;
+			return this;
+		}
+
+		public Builder edgeCorrectionFactor(float edgeCorrectionFactor) {
+			this.edgeCorrectionFactor = edgeCorrectionFactor;
+			return this;
+		}
+
+		public Builder edgeThresholdFactor(float edgeThresholdFactor) {
+			this.edgeThresholdFactor = edgeThresholdFactor;
+			return this;
+		}
+
+		public Builder minFontSize(int minFontSize) {
+			this.minFontSize = minFontSize;
+			return this;
+		}
+
+		public Builder maxFontSize(int maxFontSize) {
+			this.maxFontSize = maxFontSize;
+			return this;
+		}
+
+		public Builder peakValleyThresholdFactor(
+			float peakValleyThresholdFactor) {
+
+			this.peakValleyThresholdFactor = peakValleyThresholdFactor;
+			return this;
+		}
+
+		public Builder horizontalPeakThreshold(int horizontalPeakThreshold) {
+			this.horizontalPeakThreshold = horizontalPeakThreshold;
+			return this;
+		}
+
+		public Builder verticalPeakThreshold(int verticalPeakThreshold) {
+			this.verticalPeakThreshold = verticalPeakThreshold;
+			return this;
+		}
+
+		public Builder horizontalMergeableHoleSize(
+			int horizontalMergeableHoleSize) {
+
+			this.horizontalMergeableHoleSize = horizontalMergeableHoleSize;
+			return this;
+		}
+
+		public Builder verticalMergeableHoleSize(
+			int verticalMergeableHoleSize) {
+
+			this.verticalMergeableHoleSize = verticalMergeableHoleSize;
+			return this;
+		}
+
+		public Builder minCharAspectRatio(float minCharAspectRatio) {
+			this.minCharAspectRatio = minCharAspectRatio;
+			return this;
+		}
+
+		// the mask is checked and copied here only, the configurations
+		// derived from the built one share it
+		public Builder hysteresisMask(float[][] hysteresisMask) {
+			if (hysteresisMask == null) {
+				throw new IllegalArgumentException("missing parameter");
+			}
+			boolean squareMask = hysteresisMask.length % 2 == 1;
+			for (float[] row : hysteresisMask) {
+				squareMask &=
+					row != null && row.length == hysteresisMask.length;
+			}
+			if (!squareMask) {
+				throw new IllegalArgumentException(
+					"hysteresis mask must be square with an odd side"
+				);
+			}
+			this.hysteresisMask = copyOf(hysteresisMask);
+			return this;
+		}
+
+		public DetectorConfig build() {
+			return new DetectorConfig(this);
+		}
+	}
+
+	/**
+	 * The configuration of the original method.
+	 */
+	public static final DetectorConfig DEFAULT = new Builder()
+		.schedule(PyramidSchedule.DEFAULT)
+		.orientation(TextOrientation.HORIZONTAL)
+		.diagonalEdges(true)
+		.chromaEdges(false)
+		.textRecovery(false)
+		.hysteresisMask(EdgeMap.HYSTERESIS_MASK)
+		.projection(Projection.EDGE_STRENGTH)
+		.edgeCorrectionFactor(EdgeMap.EDGE_CORRECTION_FACTOR)
+		.edgeThresholdFactor(EdgeMap.EDGE_THRESHOLD_FACTOR)
+		.minFontSize(UniresolutionTextPositionDetector.MIN_FONT_SIZE)
+		.maxFontSize(UniresolutionTextPositionDetector.MAX_FONT_SIZE)
+		.peakValleyThresholdFactor(
+			UniresolutionTextPositionDetector.PEAK_VALLEY_THRESHOLD_FACTOR
+		)
+		.horizontalPeakThreshold(
+			UniresolutionTextPositionDetector.HORIZONTAL_PEAK_ABS_MIN_THRESHOLD
+		)
+		.verticalPeakThreshold(
+			UniresolutionTextPositionDetector.VERTICAL_PEAK_ABS_MIN_THRESHOLD
+		)
+		.horizontalMergeableHoleSize(
+			UniresolutionTextPositionDetector.HORIZONTAL_MERGEABLE_HOLE_SIZE
+		)
+		.verticalMergeableHoleSize(
+			UniresolutionTextPositionDetector.VERTICAL_MERGEABLE_HOLE_SIZE
+		)
+		.minCharAspectRatio(
+			UniresolutionTextPositionDetector.MIN_CHAR_ASPECT_RATIO
+		)
+		.build();
+
+	/**
+	 * A configuration for real-time detection, at a fraction of the cost of
+	 * the default one: a single resolution, horizontal and vertical edges
+	 * only and edge pixels counted in the projections. As in the default
+	 * one, text recovery is not computed, so it costs nothing.
+	 */
+	public static final DetectorConfig FAST = DEFAULT
+		.withSchedule(PyramidSchedule.linear(1, 1))
+		.withDiagonalEdges(false)
+		.withProjection(Projection.EDGE_COUNT);
+
+	private static final int MAX_EDGE_STRENGTH = 255;
+
+	private final PyramidSchedule schedule;
+	private final TextOrientation orientation;
+	private final boolean diagonalEdges;
+	private final boolean chromaEdges;
+	private final boolean textRecovery;
+	private final float[][] hysteresisMask;
+	private final Projection projection;
+	private final float edgeCorrectionFactor;
+	private final float edgeThresholdFactor;
+	private final int minFontSize;
+	private final int maxFontSize;
+	private final float peakValleyThresholdFactor;
+	private final int horizontalPeakThreshold;
+	private final int verticalPeakThreshold;
+	private final int horizontalMergeableHoleSize;
+	private final int verticalMergeableHoleSize;
+	private final float minCharAspectRatio;
+
+	// derived values
+	private final int[] sobelDirections;
+	private final int[] normalDirectionIndices;
+	private final int globalEdgeThreshold;
+	private final int horizontalPeakProjectionThreshold;
+	private final int verticalPeakProjectionThreshold;
+
+	private DetectorConfig(Builder builder) {
+
+		if (builder.schedule == null || builder.orientation == null
+			|| builder.projection == null || builder.hysteresisMask == null) {
+
+			throw new IllegalArgumentException("missing parameter");
+		}
+		if (builder.minFontSize < 1
+			|| builder.maxFontSize < builder.minFontSize) {
+
+			throw new IllegalArgumentException(
+				"invalid font sizes: " + builder.minFontSize + ".."
+				+ builder.maxFontSize
+			);
+		}
+		this.schedule = builder.schedule;
+		this.orientation = builder.orientation;
+		this.diagonalEdges = builder.diagonalEdges;
+		this.chromaEdges = builder.chromaEdges;
+		this.textRecovery = builder.textRecovery;
+		this.hysteresisMask = builder.hysteresisMask;
+		this.projection = builder.projection;
+		this.edgeCorrectionFactor = builder.edgeCorrectionFactor;
+		this.edgeThresholdFactor = builder.edgeThresholdFactor;
+		this.minFontSize = builder.minFontSize;
+		this.maxFontSize = builder.maxFontSize;
+		this.peakValleyThresholdFactor = builder.peakValleyThresholdFactor;
+		this.horizontalPeakThreshold = builder.horizontalPeakThreshold;
+		this.verticalPeakThreshold = builder.verticalPeakThreshold;
+		this.horizontalMergeableHoleSize = builder.horizontalMergeableHoleSize;
+		this.verticalMergeableHoleSize = builder.verticalMergeableHoleSize;
+		this.minCharAspectRatio = builder.minCharAspectRatio;
+
+		this.sobelDirections = diagonalEdges
+			? new int[] {
+				Sobel.HORIZONTAL, Sobel.VERTICAL, Sobel.LDIAGONAL,
+				Sobel.RDIAGONAL
+			}
+			: new int[] {Sobel.HORIZONTAL, Sobel.VERTICAL};
+		// the normal of a direction has the index of the paired direction
+		this.normalDirectionIndices = new int[sobelDirections.length];
+		for (int s = 0; s < sobelDirections.length; ++s) {
+			normalDirectionIndices[s] = s ^ 1;
+		}
+		// edge values are integers, compared to 255 * factor
+		this.globalEdgeThreshold =
+			(int) Math.ceil(MAX_EDGE_STRENGTH * edgeThresholdFactor);
+		this.horizontalPeakProjectionThreshold =
+			toProjectionUnits(horizontalPeakThreshold);
+		this.verticalPeakProjectionThreshold =
+			toProjectionUnits(verticalPeakThreshold);
+	}
+
+	/**
+	 * Provides a copy of this configuration with other resolutions.
+	 * @param schedule The resolutions to work with.
+	 * @return The modified configuration.
+	 */
+	public DetectorConfig withSchedule(PyramidSchedule schedule) {
+		return new Builder(this)
+			.schedule(schedule)
+			.build();
+	}
+
+	/**
+	 * Provides a copy of this configuration looking for text in another
+	 * orientation.
+	 * @param orientation The orientation of the text to look for.
+	 * @return The modified configuration.
+	 */
+	public DetectorConfig withOrientation(TextOrientation orientation) {
+		return new Builder(this)
+			.orientation(orientation)
+			.build();
+	}
+
+	/**
+	 * Provides a copy of this configuration with the diagonal Sobel filters
+	 * turned on or off. When off, the global edge map is built from the
+	 * horizontal and vertical filters only, which halves its cost.
+	 * @param diagonalEdges True to apply the diagonal filters.
+	 * @return The modified configuration.
+	 */
+	public DetectorConfig withDiagonalEdges(boolean diagonalEdges) {
+		return new Builder(this)
+			.diagonalEdges(diagonalEdges)
+			.build();
+	}
+
+	/**
+	 * Provides a copy of this configuration with edges of the chroma turned
+	 * on or off. When on, the global edge map also holds the edges of the
+	 * blue and red-difference chroma, found in the same pass over the pixels
+	 * as the luminance ones, so that colored text on a background of similar
+	 * luminance is found. This requires color pixels, so only the entry
+	 * points reading whole color images apply it.
+	 * @param chromaEdges True to look for edges in the chroma too.
+	 * @return The modified configuration.
+	 */
+	public DetectorConfig withChromaEdges(boolean chromaEdges) {
+		return new Builder(this)
+			.chromaEdges(chromaEdges)
+			.build();
+	}
+
+	/**
+	 * Provides a copy of this configuration with text recovery turned on or
+	 * off. When on, region detection runs on the edge map after text
+	 * recovery instead of the one after local thresholding. The original
+	 * method computes text recovery but does not use it, so it is off by
+	 * default.
+	 * @param textRecovery True to detect regions after text recovery.
+	 * @return The modified configuration.
+	 */
+	public DetectorConfig withTextRecovery(boolean textRecovery) {
+		return new Builder(this)
+			.textRecovery(textRecovery)
+			.build();
+	}
+
+	/**
+	 * Provides a copy of this configuration with another hysteresis mask of
+	 * text recovery, see section IV.B. A neighbour of a text pixel becomes
+	 * text if its edge strength reaches the strength of the text pixel times
+	 * the weight of its position in the mask.
+	 * @param hysteresisMask The weights of the neighbours, in a square of odd
+	 *                       side centered on the text pixel. It is copied.
+	 * @return The modified configuration.
+	 */
+	public DetectorConfig withHysteresisMask(float[][] hysteresisMask) {
+		return new Builder(this)
+			.hysteresisMask(hysteresisMask)
+			.build();
+	}
+
+	/**
+	 * Provides a copy of this configuration with another projection.
+	 * @param projection The way edges are summed up in region detection.
+	 * @return The modified configuration.
+	 */
+	public DetectorConfig withProjection(Projection projection) {
+		return new Builder(this)
+			.projection(projection)
+			.build();
+	}
+
+	/**
+	 * Provides a copy of this configuration with other global thresholding
+	 * factors, see section IV.B.
+	 * @param edgeCorrectionFactor The weight of the response normal to the
+	 *                             strongest one.
+	 * @param edgeThresholdFactor The fraction of the maximal strength below
+	 *                            which edges are dropped.
+	 * @return The modified configuration.
+	 */
+	public DetectorConfig withEdgeThresholds(float edgeCorrectionFactor,
+		float edgeThresholdFactor) {
+
+		return new Builder(this)
+			.edgeCorrectionFactor(edgeCorrectionFactor)
+			.edgeThresholdFactor(edgeThresholdFactor)
+			.build();
+	}
+
+	/**
+	 * Provides a copy of this configuration looking for text of other sizes,
+	 * at each level of the pyramid.
+	 * @param minFontSize The minimal height of a text line, in pixels.
+	 * @param maxFontSize The maximal height of a text line, in pixels.
+	 * @return The modified configuration.
+	 */
+	public DetectorConfig withFontSizes(int minFontSize, int maxFontSize) {
+		return new Builder(this)
+			.minFontSize(minFontSize)
+			.maxFontSize(maxFontSize)
+			.build();
+	}
+
+	/**
+	 * Provides a copy of this configuration with other peak thresholds of the
+	 * projections, see Fig6.
+	 * @param peakValleyThresholdFactor The fraction of the range of a
+	 *                                  projection separating peaks from
+	 *                                  valleys.
+	 * @param horizontalPeakThreshold The minimal sum of the edge strengths of
+	 *                                a row in a peak.
+	 * @param verticalPeakThreshold The minimal sum of the edge strengths of a
+	 *                              column in a peak.
+	 * @return The modified configuration.
+	 */
+	public DetectorConfig withPeakThresholds(float peakValleyThresholdFactor,
+		int horizontalPeakThreshold, int verticalPeakThreshold) {
+
+		return new Builder(this)
+			.peakValleyThresholdFactor(peakValleyThresholdFactor)
+			.horizontalPeakThreshold(horizontalPeakThreshold)
+			.verticalPeakThreshold(verticalPeakThreshold)
+			.build();
+	}
+
+	/**
+	 * Provides a copy of this configuration with other sizes of the holes
+	 * merged between sub-regions, see Fig6.
+	 * @param horizontalMergeableHoleSize The hole size between rows.
+	 * @param verticalMergeableHoleSize The hole size between columns.
+	 * @return The modified configuration.
+	 */
+	public DetectorConfig withMergeableHoleSizes(
+		int horizontalMergeableHoleSize, int verticalMergeableHoleSize) {
+
+		return new Builder(this)
+			.horizontalMergeableHoleSize(horizontalMergeableHoleSize)
+			.verticalMergeableHoleSize(verticalMergeableHoleSize)
+			.build();
+	}
+
+	/**
+	 * Provides a copy of this configuration with another minimal aspect ratio
+	 * of the characters.
+	 * @param minCharAspectRatio The minimal width / height ratio.
+	 * @return The modified configuration.
+	 */
+	public DetectorConfig withMinCharAspectRatio(float minCharAspectRatio) {
+		return new Builder(this)
+			.minCharAspectRatio(minCharAspectRatio)
+			.build();
+	}
+
+	/**
+	 * Getter on the resolutions to work with.
+	 * @return The resolutions to work with.
+	 */
+	public PyramidSchedule getSchedule() {
+		return schedule;
+	}
+
+	/**
+	 * Getter on the orientation of the text to look for.
+	 * @return The orientation of the text to look for.
+	 */
+	public TextOrientation getOrientation() {
+		return orientation;
+	}
+
+	/**
+	 * Tells whether the diagonal Sobel filters are applied.
+	 * @return True if the diagonal filters are applied.
+	 */
+	public boolean hasDiagonalEdges() {
+		return diagonalEdges;
+	}
+
+	/**
+	 * Tells whether edges are looked for in the chroma too.
+	 * @return True if the chroma edges are part of the global edge map.
+	 */
+	public boolean hasChromaEdges() {
+		return chromaEdges;
+	}
+
+	/**
+	 * Tells whether regions are detected after text recovery.
+	 * @return True if regions are detected after text recovery.
+	 */
+	public boolean hasTextRecovery() {
+		return textRecovery;
+	}
+
+	/**
+	 * Provides the hysteresis mask of text recovery.
+	 * @return A copy of the weights of the neighbours of a text pixel.
+	 */
+	public float[][] getHysteresisMask() {
+		return copyOf(hysteresisMask);
+	}
+
+	/**
+	 * Getter on the way edges are summed up in region detection.
+	 * @return The projection.
+	 */
+	public Projection getProjection() {
+		return projection;
+	}
+
+	/**
+	 * Getter on the weight of the response normal to the strongest one.
+	 * @return The edge correction factor.
+	 */
+	public float getEdgeCorrectionFactor() {
+		return edgeCorrectionFactor;
+	}
+
+	/**
+	 * Getter on the fraction of the maximal strength below which edges are
+	 * dropped.
+	 * @return The edge threshold factor.
+	 */
+	public float getEdgeThresholdFactor() {
+		return edgeThresholdFactor;
+	}
+
+	/**
+	 * Getter on the minimal height of a text line.
+	 * @return The minimal font size.
+	 */
+	public int getMinFontSize() {
+		return minFontSize;
+	}
+
+	/**
+	 * Getter on the maximal height of a text line.
+	 * @return The maximal font size.
+	 */
+	public int getMaxFontSize() {
+		return maxFontSize;
+	}
+
+	/**
+	 * Getter on the fraction of the range of a projection separating peaks
+	 * from valleys.
+	 * @return The peak valley threshold factor.
+	 */
+	public float getPeakValleyThresholdFactor() {
+		return peakValleyThresholdFactor;
+	}
+
+	/**
+	 * Getter on the minimal sum of the edge strengths of a row in a peak.
+	 * @return The horizontal peak threshold.
+	 */
+	public int getHorizontalPeakThreshold() {
+		return horizontalPeakThreshold;
+	}
+
+	/**
+	 * Getter on the minimal sum of the edge strengths of a column in a peak.
+	 * @return The vertical peak threshold.
+	 */
+	public int getVerticalPeakThreshold() {
+		return verticalPeakThreshold;
+	}
+
+	/**
+	 * Getter on the size of the holes merged between rows.
+	 * @return The horizontal mergeable hole size.
+	 */
+	public int getHorizontalMergeableHoleSize() {
+		return horizontalMergeableHoleSize;
+	}
+
+	/**
+	 * Getter on the size of the holes merged between columns.
+	 * @return The vertical mergeable hole size.
+	 */
+	public int getVerticalMergeableHoleSize() {
+		return verticalMergeableHoleSize;
+	}
+
+	/**
+	 * Getter on the minimal width / height ratio of the characters.
+	 * @return The minimal aspect ratio of the characters.
+	 */
+	public float getMinCharAspectRatio() {
+		return minCharAspectRatio;
+	}
+
+	/**
+	 * Provides the Sobel filters to apply, normal directions being paired.
+	 * @return The directions of the filters, see Sobel. Must not be modified.
+	 */
+	int[] getSobelDirections() {
+		return sobelDirections;
+	}
+
+	/**
+	 * Provides the hysteresis mask of text recovery without copying it.
+	 * @return The weights of the neighbours of a text pixel. Must not be
+	 *         modified.
+	 */
+	float[][] getHysteresisWeights() {
+		return hysteresisMask;
+	}
+
+	/**
+	 * Provides the position of the normal of a direction in the array of the
+	 * Sobel filters to apply.
+	 * @param s The position of the direction in getSobelDirections().
+	 * @return The position of its normal direction.
+	 */
+	int getNormalDirectionIndex(int s) {
+		return normalDirectionIndices[s];
+	}
+
+	/**
+	 * Getter on the minimal value of a pixel of the global edge map.
+	 * @return The global edge threshold.
+	 */
+	int getGlobalEdgeThreshold() {
+		return globalEdgeThreshold;
+	}
+
+	/**
+	 * Provides the fields global thresholding depends on, so that edge maps
+	 * computed with configurations giving equal keys are equal too.
+	 * @return The key of the global edge map, see StageCache.
+	 */
+	List<Object> getGlobalThresholdingKey() {
+		return Arrays.asList(
+			diagonalEdges, chromaEdges, edgeCorrectionFactor,
+			edgeThresholdFactor
+		);
+	}
+
+	/**
+	 * Getter on the minimal value of a row of the projection in a peak, in
+	 * the units of the projection.
+	 * @return The horizontal peak threshold of the projection.
+	 */
+	int getHorizontalPeakProjectionThreshold() {
+		return horizontalPeakProjectionThreshold;
+	}
+
+	/**
+	 * Getter on the minimal value of a column of the projection in a peak,
+	 * in the units of the projection.
+	 * @return The vertical peak threshold of the projection.
+	 */
+	int getVerticalPeakProjectionThreshold() {
+		return verticalPeakProjectionThreshold;
+	}
+
+	/**
+	 * Provides the contribution of an edge pixel to a projection.
+	 * @param value The value of the pixel.
+	 * @return The contribution of the pixel.
+	 */
+	int getProjectionValue(int value) {
+		return projection == Projection.EDGE_STRENGTH
+			? value
+			: (value > 0 ? 1 : 0);
+	}
+
+	private static float[][] copyOf(float[][] mask) {
+		float[][] res = new float[mask.length][];
+		for (int j = 0; j < mask.length; ++j) {
+			res[j] = mask[j].clone();
+		}
+		return res;
+	}
+
+	// an edge pixel counted as 1 is worth the maximal strength
+	private int toProjectionUnits(int strengthThreshold) {
+		return projection == Projection.EDGE_STRENGTH
+			? strengthThreshold
+			: (strengthThreshold + MAX_EDGE_STRENGTH - 1) / MAX_EDGE_STRENGTH;
+	}
+
+	@Override
+	public String toString() {
+		return "DetectorConfig[" + schedule + ", " + orientation
+			+ (diagonalEdges ? ", diagonal edges" : "")
+			+ (chromaEdges ? ", chroma edges" : "")
+			+ (textRecovery ? ", text recovery" : "")
+			+ ", " + projection + "]";
+	}
+
+}
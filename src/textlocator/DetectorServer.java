@@ -0,0 +1,733 @@
+package textlocator;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Resident detector reading requests as JSON lines and writing one JSON line
+ * per result, so that the JVM startup and the JIT warm-up are only paid once.
+ * Requests are processed concurrently, so results may come back in another
+ * order than the requests: each result carries the id of its request.
+ *
+ * A request is a flat JSON object holding either:
+ *  - "path": the path of an image file readable by ImageIO,
+ *  - "width", "height" and "pixels": a raw frame, as base64 encoded RGB
+ *    bytes (3 bytes per pixel, row by row).
+ * Optional fields are "id", echoed in the result, "timeoutMs", after which
+ * the detection is stopped and a partial result returned, and "profile",
+ * "default" or "fast", the configuration of the detection, see
+ * DetectorConfig.
+ *
+ * A result holds "id", "regions" as [x, y, width, height] arrays, "partial",
+ * and the timings in milliseconds: "queueMs" waiting for a worker, "admitMs"
+ * waiting for memory, "decodeMs" reading the image, "detectMs" running the
+ * pipeline and "totalMs".
+ * A failed request gives "id" and "error" instead.
+ *
+ * Requests are admitted against a heap budget, see AdmissionController: a
+ * request waits, counting in its timeout, until the memory of its
+ * detection is available, and an image too large for the budget is
+ * processed in bands. The buffers each worker reuses from one request to
+ * the next are not counted, and are not kept for images processed in
+ * bands.
+ * Requests are only admitted once a worker runs them, so the requests read
+ * ahead of the workers, whose inline pixels may take tens of megabytes, are
+ * bounded instead: at most READ_AHEAD_PER_THREAD requests per worker wait
+ * for a worker or run. A request read beyond them waits for one to be done
+ * before it is handed to the workers, its connection reading nothing else
+ * meanwhile, so at most one more request per connection is held. Idle
+ * connections hold nothing.
+ * @author MX-Futhark
+ */
+public class DetectorServer {
+
+	/**
+	 * Number of requests per worker handed to the workers from all the
+	 * connections and not done yet.
+	 */
+	public static final int READ_AHEAD_PER_THREAD = 2;
+
+	/**
+	 * Number of connections served at once on a port or a socket. Further
+	 * connections wait in the backlog of the socket.
+	 */
+	public static final int MAX_CONNECTIONS = 16;
+
+	private static final int WARM_UP_ROUNDS = 20;
+
+	private final ExecutorService workers;
+	private final AdmissionController admission;
+	// requests handed to the workers and not done yet, over all connections
+	private final Semaphore readAhead;
+	private final Semaphore connections = new Semaphore(MAX_CONNECTIONS);
+	// buffers reused by each worker from one request to the next
+	private final ThreadLocal<int[]> rgbBuffers =
+		ThreadLocal.withInitial(() -> new int[0]);
+	private final ThreadLocal<byte[]> byteBuffers =
+		ThreadLocal.withInitial(() -> new byte[0]);
+	private final ThreadLocal<GrayImage> grayBuffers = new ThreadLocal<>();
+
+	/**
+	 * Constructor using the default heap budget, see AdmissionController.
+	 * @param threads The number of requests processed concurrently.
+	 */
+	public DetectorServer(int threads) {
+		this(threads, new AdmissionController());
+	}
+
+	/**
+	 * Constructor.
+	 * @param threads The number of requests processed concurrently.
+	 * @param admission The controller admitting requests against the heap
+	 *                  budget.
+	 */
+	public DetectorServer(int threads, AdmissionController admission) {
+		this.workers = Executors.newFixedThreadPool(threads);
+		this.admission = admission;
+		this.readAhead = new Semaphore(threads * READ_AHEAD_PER_THREAD, true);
+	}
+
+	/**
+	 * Runs the pipeline on a synthetic image so that the first requests are
+	 * processed by compiled code.
+	 * @throws IOException
+	 */
+	public void warmUp() throws IOException {
+
+		int width = 256, height = 64;
+		int[] rgbPixels = new int[width * height];
+		for (int j = height / 4; j < height / 2; ++j) {
+			for (int i = 0; i < width; ++i) {
+				rgbPixels[j * width + i] = (i / 3) % 2 == 0 ? 0xFFFFFF : 0;
+			}
+		}
+
+		for (int k = 0; k < WARM_UP_ROUNDS; ++k) {
+			MultiresolutionTextPositionDetector.apply(rgbPixels, width, height);
+		}
+	}
+
+	/**
+	 * Serves the requests read on the standard input until its end.
+	 * @throws IOException
+	 */
+	public void serveStandardStreams() throws IOException {
+		serve(System.in, System.out);
+		shutdown();
+	}
+
+	/**
+	 * Serves the connections made to a TCP port of the loopback interface.
+	 * Each connection is a stream of requests, MAX_CONNECTIONS of them being
+	 * served at once. Never returns.
+	 * @param port The port to listen to.
+	 * @throws IOException
+	 */
+	public void serveLocalPort(int port) throws IOException {
+		serve(
+			ServerSocketChannel.open(),
+			new InetSocketAddress(InetAddress.getLoopbackAddress(), port)
+		);
+	}
+
+	/**
+	 * Serves the connections made to a Unix domain socket. Each connection is
+	 * a stream of requests, MAX_CONNECTIONS of them being served at once.
+	 * Never returns.
+	 * @param socketPath The path of the socket, replaced if it exists.
+	 * @throws IOException
+	 */
+	public void serveUnixSocket(Path socketPath) throws IOException {
+		Files.deleteIfExists(socketPath);
+		serve(
+			ServerSocketChannel.open(StandardProtocolFamily.UNIX),
+			UnixDomainSocketAddress.of(socketPath)
+		);
+	}
+
+	/**
+	 * Waits for the requests in progress and stops the workers.
+	 */
+	public void shutdown() {
+		workers.shutdown();
+		try {
+			workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void serve(ServerSocketChannel server, SocketAddress address)
+		throws IOException {
+
+		server.bind(address);
+
+		while (true) {
+			// connections are only accepted once there is room for them
+			connections.acquireUninterruptibly();
+			SocketChannel client;
+			try {
+				client = server.accept();
+			} catch (IOException | RuntimeException e) {
+				connections.release();
+				throw e;
+			}
+			Thread connection = new Thread(() -> {
+				try {
+					serve(
+						new ChannelInputStream(client),
+						new ChannelOutputStream(client)
+					);
+				} catch (IOException e) {
+					e.printStackTrace();
+				} finally {
+					try {
+						client.close();
+					} catch (IOException e) {
+						e.printStackTrace();
+					}
+					connections.release();
+				}
+			});
+			connection.setDaemon(true);
+			connection.start();
+		}
+	}
+
+	// reads requests until the end of the input, results are written by the
+	// workers as soon as they are ready
+	private void serve(InputStream in, OutputStream out) throws IOException {
+
+		BufferedReader reader = new BufferedReader(
+			new InputStreamReader(in, StandardCharsets.UTF_8)
+		);
+		Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+		Object pending = new Object();
+		int[] pendingCount = {0};
+
+		String line;
+		while ((line = reader.readLine()) != null) {
+
+			if (line.isBlank()) continue;
+			String request = line;
+			long received = System.nanoTime();
+
+			// an idle connection holds no permit, a read request waits for
+			// one before the next request of its connection is read
+			readAhead.acquireUninterruptibly();
+			synchronized (pending) {
+				++pendingCount[0];
+			}
+			try {
+				workers.execute(() -> {
+					// the end of the connection waits for every request
+					try {
+						String result;
+						try {
+							result = process(request, received);
+						} finally {
+							readAhead.release();
+						}
+						synchronized (writer) {
+							writer.write(result);
+							writer.write('\n');
+							writer.flush();
+						}
+					} catch (IOException e) {
+						e.printStackTrace();
+					} finally {
+						synchronized (pending) {
+							--pendingCount[0];
+							pending.notifyAll();
+						}
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				readAhead.release();
+				synchronized (pending) {
+					--pendingCount[0];
+				}
+				throw e;
+			}
+		}
+
+		// the results of the last requests are still sent
+		synchronized (pending) {
+			while (pendingCount[0] > 0) {
+				try {
+					pending.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+		}
+		reader.close();
+		writer.close();
+	}
+
+	// processes one request and formats its result, errors such as running
+	// out of memory included
+	private String process(String request, long received) {
+
+		long started = System.nanoTime();
+		String id = null;
+
+		try {
+			Map<String, String> fields = parseRequest(request);
+			id = fields.get("id");
+
+			CancellationToken token = fields.containsKey("timeoutMs")
+				? CancellationToken.withTimeout(
+					Long.parseLong(fields.get("timeoutMs")),
+					TimeUnit.MILLISECONDS
+				)
+				: CancellationToken.NONE;
+			DetectorConfig config = getConfig(fields.get("profile"));
+
+			// footprint of the decoding buffers, the decoded image or bytes
+			// and the packed pixels, and of the detection
+			int[] size = getSize(fields);
+			int width = size[0], height = size[1];
+			long sized = System.nanoTime();
+			long decodeFootprint = (long) width * height
+				* (fields.containsKey("path") ? 8 : 7);
+			long footprint = decodeFootprint
+				+ AdmissionController.estimateFootprint(width, height, config);
+			int bandHeight = -1;
+			if (footprint > admission.getBudget()) {
+				long grayFootprint = (long) width * height * Integer.BYTES;
+				bandHeight = AdmissionController.getBandHeight(
+					width, height,
+					admission.getBudget() - decodeFootprint - grayFootprint,
+					config
+				);
+				if (bandHeight < 0) {
+					throw new IOException(
+						"image of " + width + "x" + height
+						+ " too large for the heap budget"
+					);
+				}
+				footprint = decodeFootprint + grayFootprint
+					+ AdmissionController.estimateBandFootprint(
+						width, bandHeight, config
+					);
+			}
+
+			long admitted, decoded, detected;
+			DetectionResult res;
+			try {
+				AdmissionController.Permit permit =
+					admission.acquire(footprint, token);
+				try {
+					admitted = System.nanoTime();
+					GrayImage grayImg = decode(fields, bandHeight < 0);
+					decoded = System.nanoTime();
+
+					res = bandHeight < 0
+						? MultiresolutionTextPositionDetector.detect(
+							grayImg, config, null, token
+						)
+						: MultiresolutionTextPositionDetector.detectInBands(
+							grayImg, bandHeight, config, token
+						);
+					detected = System.nanoTime();
+				} finally {
+					permit.close();
+				}
+			} catch (CancellationException e) {
+				// timed out while waiting for memory
+				res = new DetectionResult(new Regions(), true);
+				admitted = decoded = detected = System.nanoTime();
+			}
+
+			StringBuilder sb = new StringBuilder("{");
+			appendId(sb, id);
+			sb.append("\"regions\":[");
+			Regions regions = res.getRegions();
+			for (int i = 0; i < regions.size(); ++i) {
+				sb.append(i > 0 ? "," : "").append('[')
+					.append(regions.getX(i)).append(',')
+					.append(regions.getY(i)).append(',')
+					.append(regions.getWidth(i)).append(',')
+					.append(regions.getHeight(i)).append(']');
+			}
+			sb.append("],\"partial\":").append(res.isPartial());
+			appendTime(sb, "queueMs", started - received);
+			appendTime(sb, "admitMs", admitted - sized);
+			appendTime(sb, "decodeMs", sized - started + decoded - admitted);
+			appendTime(sb, "detectMs", detected - decoded);
+			appendTime(sb, "totalMs", detected - received);
+
+			return sb.append('}').toString();
+
+		} catch (Throwable e) {
+			StringBuilder sb = new StringBuilder("{");
+			appendId(sb, id);
+			sb.append("\"error\":");
+			appendString(sb, String.valueOf(e.getMessage()));
+			return sb.append('}').toString();
+		}
+	}
+
+	// provides the configuration of a profile, the default one if null
+	static DetectorConfig getConfig(String profile) {
+		if (profile == null || profile.equals("default")) {
+			return DetectorConfig.DEFAULT;
+		} else if (profile.equals("fast")) {
+			return DetectorConfig.FAST;
+		}
+		throw new IllegalArgumentException("unknown profile: " + profile);
+	}
+
+	// provides the size of the image of a request, without decoding it
+	private static int[] getSize(Map<String, String> fields)
+		throws IOException {
+
+		if (fields.containsKey("path")) {
+			try (ImageInputStream in = ImageIO.createImageInputStream(
+				new File(fields.get("path")))) {
+
+				Iterator<ImageReader> readers = in == null
+					? Collections.emptyIterator()
+					: ImageIO.getImageReaders(in);
+				if (!readers.hasNext()) {
+					throw new IOException(
+						"unreadable image: " + fields.get("path")
+					);
+				}
+				ImageReader reader = readers.next();
+				try {
+					reader.setInput(in);
+					return new int[] {reader.getWidth(0), reader.getHeight(0)};
+				} finally {
+					reader.dispose();
+				}
+			}
+		} else if (fields.containsKey("pixels")) {
+			return new int[] {
+				Integer.parseInt(fields.get("width")),
+				Integer.parseInt(fields.get("height"))
+			};
+		}
+		throw new IOException("request has neither path nor pixels");
+	}
+
+	// reads the image of a request into the gray image of the worker, or a
+	// new one if the buffers of the worker are not reused
+	private GrayImage decode(Map<String, String> fields, boolean reuse)
+		throws IOException {
+
+		int width, height;
+		int[] rgbPixels;
+
+		if (fields.containsKey("path")) {
+			BufferedImage img = ImageIO.read(new File(fields.get("path")));
+			if (img == null) {
+				throw new IOException(
+					"unreadable image: " + fields.get("path")
+				);
+			}
+			width = img.getWidth();
+			height = img.getHeight();
+			rgbPixels = getRgbBuffer(width * height, reuse);
+			img.getRGB(0, 0, width, height, rgbPixels, 0, width);
+
+		} else if (fields.containsKey("pixels")) {
+			width = Integer.parseInt(fields.get("width"));
+			height = Integer.parseInt(fields.get("height"));
+			byte[] src =
+				fields.get("pixels").getBytes(StandardCharsets.US_ASCII);
+			byte[] bytes = byteBuffers.get();
+			// upper bound of the decoded length
+			if (bytes.length < src.length / 4 * 3 + 3) {
+				bytes = new byte[src.length / 4 * 3 + 3];
+				byteBuffers.set(bytes);
+			}
+			int length = Base64.getDecoder().decode(src, bytes);
+			if (width <= 0 || height <= 0 || length != 3 * width * height) {
+				throw new IOException(
+					"expected " + width + "x" + height + " RGB pixels, got "
+					+ length + " bytes"
+				);
+			}
+			rgbPixels = getRgbBuffer(width * height, reuse);
+			for (int i = 0; i < width * height; ++i) {
+				rgbPixels[i] = (bytes[3 * i] & 0xFF) << 16
+					| (bytes[3 * i + 1] & 0xFF) << 8
+					| (bytes[3 * i + 2] & 0xFF);
+			}
+
+		} else {
+			throw new IOException("request has neither path nor pixels");
+		}
+
+		GrayImage res = reuse ? grayBuffers.get() : null;
+		if (res == null || res.getWidth() != width
+			|| res.getHeight() != height) {
+
+			res = new GrayImage(width, height);
+			if (reuse) grayBuffers.set(res);
+		}
+		for (int j = 0; j < height; ++j) {
+			for (int i = 0; i < width; ++i) {
+				res.setValue(i, j, GrayImage.desaturate(
+					rgbPixels[j * width + i],
+					GrayImage.DesaturationMethod.LUMINANCE
+				));
+			}
+		}
+
+		return res;
+	}
+
+	private int[] getRgbBuffer(int length, boolean reuse) {
+		if (!reuse) return new int[length];
+		int[] res = rgbBuffers.get();
+		if (res.length < length) {
+			res = new int[length];
+			rgbBuffers.set(res);
+		}
+		return res;
+	}
+
+	private static void appendId(StringBuilder sb, String id) {
+		if (id != null) {
+			sb.append("\"id\":");
+			appendString(sb, id);
+			sb.append(',');
+		}
+	}
+
+	private static void appendTime(StringBuilder sb, String name,
+		long nanos) {
+
+		sb.append(",\"").append(name).append("\":")
+			.append(String.format(Locale.ROOT, "%.3f", nanos / 1e6));
+	}
+
+	private static void appendString(StringBuilder sb, String s) {
+		sb.append('"');
+		for (int i = 0; i < s.length(); ++i) {
+			char c = s.charAt(i);
+			if (c == '"' || c == '\\') {
+				sb.append('\\').append(c);
+			} else if (c < 0x20) {
+				sb.append(String.format("\\u%04x", (int) c));
+			} else {
+				sb.append(c);
+			}
+		}
+		sb.append('"');
+	}
+
+	/**
+	 * Parses a flat JSON object whose values are strings, numbers or
+	 * booleans. Every value is provided as a string.
+	 * @param json The JSON object.
+	 * @return The values of the object by name.
+	 * @throws IOException if the object is malformed.
+	 */
+	static Map<String, String> parseRequest(String json) throws IOException {
+
+		Map<String, String> res = new HashMap<>();
+		int[] pos = {skipSpaces(json, 0)};
+
+		expect(json, pos, '{');
+		if (peek(json, pos) == '}') {
+			++pos[0];
+			return res;
+		}
+
+		while (true) {
+			String name = parseString(json, pos);
+			expect(json, pos, ':');
+			String value;
+			if (peek(json, pos) == '"') {
+				value = parseString(json, pos);
+			} else {
+				int start = pos[0];
+				while (pos[0] < json.length()
+					&& ",} \t".indexOf(json.charAt(pos[0])) < 0) {
+
+					++pos[0];
+				}
+				value = json.substring(start, pos[0]);
+				pos[0] = skipSpaces(json, pos[0]);
+			}
+			res.put(name, value);
+
+			if (peek(json, pos) == ',') {
+				++pos[0];
+				pos[0] = skipSpaces(json, pos[0]);
+			} else {
+				expect(json, pos, '}');
+				return res;
+			}
+		}
+	}
+
+	private static String parseString(String json, int[] pos)
+		throws IOException {
+
+		expect(json, pos, '"');
+		StringBuilder sb = new StringBuilder();
+
+		while (pos[0] < json.length()) {
+			char c = json.charAt(pos[0]++);
+			if (c == '"') {
+				pos[0] = skipSpaces(json, pos[0]);
+				return sb.toString();
+			}
+			if (c != '\\') {
+				sb.append(c);
+				continue;
+			}
+			if (pos[0] >= json.length()) break;
+			char escaped = json.charAt(pos[0]++);
+			switch (escaped) {
+			case 'b': sb.append('\b'); break;
+			case 'f': sb.append('\f'); break;
+			case 'n': sb.append('\n'); break;
+			case 'r': sb.append('\r'); break;
+			case 't': sb.append('\t'); break;
+			case 'u':
+				if (pos[0] + 4 > json.length()) {
+					throw new IOException("truncated escape sequence");
+				}
+				sb.append((char) Integer.parseInt(
+					json.substring(pos[0], pos[0] + 4), 16
+				));
+				pos[0] += 4;
+				break;
+			default: sb.append(escaped);
+			}
+		}
+
+		throw new IOException("unterminated string");
+	}
+
+	private static char peek(String json, int[] pos) throws IOException {
+		if (pos[0] >= json.length()) {
+			throw new IOException("unexpected end of request");
+		}
+		return json.charAt(pos[0]);
+	}
+
+	private static void expect(String json, int[] pos, char c)
+		throws IOException {
+
+		if (peek(json, pos) != c) {
+			throw new IOException(
+				"expected '" + c + "' at position " + pos[0] + " of request"
+			);
+		}
+		pos[0] = skipSpaces(json, pos[0] + 1);
+	}
+
+	private static int skipSpaces(String json, int pos) {
+		while (pos < json.length()
+			&& Character.isWhitespace(json.charAt(pos))) {
+
+
+			++pos;
+		}
+		return pos;
+	}
+
+	/**
+	 * Input stream over a socket channel. Unlike Channels.newInputStream, it
+	 * does not block writes to the channel while waiting for data.
+	 * @author MX-Futhark
+	 */
+	private static class ChannelInputStream extends InputStream {
+
+		private final SocketChannel channel;
+
+		public ChannelInputStream(SocketChannel channel) {
+			this.channel = channel;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			return channel.read(ByteBuffer.wrap(b, off, len));
+		}
+
+		@Override
+		public void close() throws IOException {
+			channel.shutdownInput();
+		}
+	}
+
+	/**
+	 * Output stream over a socket channel, see ChannelInputStream.
+	 * @author MX-Futhark
+	 */
+	private static class ChannelOutputStream extends OutputStream {
+
+		private final SocketChannel channel;
+
+		public ChannelOutputStream(SocketChannel channel) {
+			this.channel = channel;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] {(byte) b}, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			channel.close();
+		}
+	}
+
+}
@@ -1,8 +1,9 @@
 package textlocator;
 
-import java.awt.Point;
+import java.util.Arrays;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Executor;
 
 /**
  * Edge map related methods, see section IV.B
@@ -11,6 +12,7 @@ import java.util.TreeSet;
 class EdgeMap {
 
 	// see section IV.B, global thresholding part
+	// default values, see DetectorConfig
 	public static final float EDGE_CORRECTION_FACTOR = 0.5f;
 	public static final float EDGE_THRESHOLD_FACTOR = 0.3f;
 
@@ -28,6 +30,7 @@ class EdgeMap {
 	public static final int TEXT_LABELING_RECT_STEP_X = 5;
 	public static final int TEXT_LABELING_RECT_STEP_Y = 2;
 	public static final float EDGE_DENSITY_THRESHOLD_FACTOR = 0.20f;
+	// default of DetectorConfig, which may replace it per call
 	public static final float[][] HYSTERESIS_MASK =
 		{{0.5f, 0.5f, 0.5f, 0.5f, 0.5f},
 		 {0.5f, 0.8f, 0.8f, 0.8f, 0.5f},
@@ -35,6 +38,9 @@ class EdgeMap {
 		 {0.5f, 0.8f, 0.8f, 0.8f, 0.5f},
 		 {0.5f, 0.5f, 0.5f, 0.5f, 0.5f}};
 
+	// cancellation is checked every CHECK_PERIOD_MASK + 1 propagations
+	private static final int CHECK_PERIOD_MASK = 0x3FF;
+
 
 	/**
 	 * Applies global thresholding to the gray image. See section IV.B
@@ -42,57 +48,200 @@ class EdgeMap {
 	 * @return The gray image after global thresholding.
 	 */
 	public static GrayImage applyGlobalThresholding(GrayImage img) {
+		return applyGlobalThresholding(img, CancellationToken.NONE);
+	}
+
+	/**
+	 * Applies global thresholding to the gray image. See section IV.B
+	 * @param img The gray image.
+	 * @param token The token checked while processing the image.
+	 * @return The gray image after global thresholding.
+	 * @throws java.util.concurrent.CancellationException if the token is
+	 *         cancelled.
+	 */
+	public static GrayImage applyGlobalThresholding(GrayImage img,
+		CancellationToken token) {
+
+		return applyGlobalThresholding(img, DetectorConfig.DEFAULT, token);
+	}
+
+	/**
+	 * Applies global thresholding to the gray image with the Sobel filters
+	 * and thresholds of a configuration. See section IV.B
+	 * @param img The gray image.
+	 * @param config The configuration of the detection.
+	 * @param token The token checked while processing the image.
+	 * @return The gray image after global thresholding.
+	 * @throws java.util.concurrent.CancellationException if the token is
+	 *         cancelled.
+	 */
+	public static GrayImage applyGlobalThresholding(GrayImage img,
+		DetectorConfig config, CancellationToken token) {
+
+		GrayImage map =
+			img.createCompatibleImage(img.getWidth(), img.getHeight());
 
-		GrayImage map = new GrayImage(img.getWidth(), img.getHeight());
+		int[] directions = config.getSobelDirections();
+		GrayImage[] sobels = new GrayImage[directions.length];
+		for (int s = 0; s < directions.length; ++s) {
+			sobels[s] = Sobel.convolve(
+				img, directions[s], Sobel.ABS | Sobel.NORMALIZED, token
+			);
+		}
 
-		GrayImage[] sobels = {
-			Sobel.convolve(img, Sobel.HORIZONTAL, Sobel.ABS | Sobel.NORMALIZED),
-			Sobel.convolve(img, Sobel.VERTICAL, Sobel.ABS | Sobel.NORMALIZED),
-			Sobel.convolve(img, Sobel.LDIAGONAL, Sobel.ABS | Sobel.NORMALIZED),
-			Sobel.convolve(img, Sobel.RDIAGONAL, Sobel.ABS | Sobel.NORMALIZED)
-		};
+		int[] responses = new int[sobels.length];
 
 		for (int j = 0; j < map.getHeight(); ++j) {
+			token.check();
 			for (int i = 0; i < map.getWidth(); ++i) {
-
-				int maxValue = -1, maxDirection = -1;
 				for (int s = 0; s < sobels.length; ++s) {
-					int value = Math.abs(sobels[s].getValue(i, j));
-					if (value > maxValue) {
-						maxValue = value;
-						maxDirection = s;
-					}
+					responses[s] = sobels[s].getValue(i, j);
 				}
+				map.setValue(i, j, getGlobalEdgeValue(responses, config));
+			}
+		}
 
-				int normalDirection = -1;
-				switch (maxDirection) {
-				case Sobel.HORIZONTAL:
-					normalDirection = Sobel.VERTICAL;
-					break;
-				case Sobel.VERTICAL:
-					normalDirection = Sobel.HORIZONTAL;
-					break;
-				case Sobel.LDIAGONAL:
-					normalDirection = Sobel.RDIAGONAL;
-					break;
-				case Sobel.RDIAGONAL:
-					normalDirection = Sobel.LDIAGONAL;
-					break;
-				}
+		return map;
+	}
+
+	/**
+	 * Applies global thresholding to a color image in a single pass over its
+	 * pixels. The Sobel responses of the luminance and, if the configuration
+	 * has chroma edges, of the blue and red-difference chroma are computed
+	 * together, and the strongest response of each direction makes the edge
+	 * value, so that text with little luminance contrast is found too.
+	 * With luminance only, the result is the same as global thresholding of
+	 * the luminance gray image. See section IV.B
+	 * @param rgbPixels The pixels of the image, packed as 0xRRGGBB integers,
+	 *                  row by row.
+	 * @param width The width of the image.
+	 * @param height The height of the image.
+	 * @param config The configuration of the detection.
+	 * @param token The token checked while processing the image.
+	 * @return The edge map after global thresholding.
+	 * @throws java.util.concurrent.CancellationException if the token is
+	 *         cancelled.
+	 */
+	public static GrayImage applyGlobalThresholding(int[] rgbPixels,
+		int width, int height, DetectorConfig config,
+		CancellationToken token) {
+
+		GrayImage map = new GrayImage(width, height);
+		int channels = config.hasChromaEdges() ? 3 : 1;
+		boolean diagonalEdges = config.hasDiagonalEdges();
+		int[] responses = new int[config.getSobelDirections().length];
+
+		// rows y - 1, y and y + 1 of each channel, edge rows being repeated
+		// as Sobel does
+		int[][] above = new int[channels][width],
+			current = new int[channels][width],
+			below = new int[channels][width];
+		if (height > 0) {
+			splitChannels(rgbPixels, width, 0, current);
+			splitChannels(rgbPixels, width, Math.min(1, height - 1), below);
+			for (int c = 0; c < channels; ++c) {
+				System.arraycopy(current[c], 0, above[c], 0, width);
+			}
+		}
 
-				int value = maxValue
-					+ (int) (Math.abs(sobels[normalDirection].getValue(i, j))
-					* EDGE_CORRECTION_FACTOR);
-				value = Math.min(value, 255);
-				map.setValue(
-					i, j, value < 255 * EDGE_THRESHOLD_FACTOR ? 0 : value
+		for (int j = 0; j < height; ++j) {
+			token.check();
+			if (j > 0) {
+				int[][] recycled = above;
+				above = current;
+				current = below;
+				below = recycled;
+				splitChannels(
+					rgbPixels, width, Math.min(j + 1, height - 1), below
 				);
 			}
+
+			for (int i = 0; i < width; ++i) {
+
+				int l = Math.max(i - 1, 0), r = Math.min(i + 1, width - 1);
+				Arrays.fill(responses, 0);
+
+				for (int c = 0; c < channels; ++c) {
+					int[] a = above[c], m = current[c], b = below[c];
+					// same kernels as Sobel, the sign being dropped
+					responses[0] = Math.max(responses[0], Math.abs(
+						a[r] + 2 * m[r] + b[r] - a[l] - 2 * m[l] - b[l]
+					) / 4);
+					responses[1] = Math.max(responses[1], Math.abs(
+						b[l] + 2 * b[i] + b[r] - a[l] - 2 * a[i] - a[r]
+					) / 4);
+					if (!diagonalEdges) continue;
+					responses[2] = Math.max(responses[2], Math.abs(
+						2 * b[r] + b[i] + m[r] - 2 * a[l] - a[i] - m[l]
+					) / 4);
+					responses[3] = Math.max(responses[3], Math.abs(
+						2 * b[l] + b[i] + m[l] - 2 * a[r] - a[i] - m[r]
+					) / 4);
+				}
+
+				map.setValue(i, j, getGlobalEdgeValue(responses, config));
+			}
 		}
 
 		return map;
 	}
 
+	// converts a row of a color image into its luminance and, if asked,
+	// chroma channels
+	private static void splitChannels(int[] rgbPixels, int width, int y,
+		int[][] res) {
+
+		int offset = y * width;
+		for (int i = 0; i < width; ++i) {
+			int rgb = rgbPixels[offset + i];
+			res[0][i] = GrayImage.desaturate(
+				rgb, GrayImage.DesaturationMethod.LUMINANCE
+			);
+			if (res.length > 1) {
+				res[1][i] = GrayImage.blueChroma(rgb);
+				res[2][i] = GrayImage.redChroma(rgb);
+			}
+		}
+	}
+
+	/**
+	 * Computes the value of a pixel of the global edge map from its Sobel
+	 * responses. See section IV.B
+	 * @param responses The Sobel responses of the pixel, indexed by direction.
+	 * @return The value of the pixel after global thresholding.
+	 */
+	static int getGlobalEdgeValue(int[] responses) {
+		return getGlobalEdgeValue(responses, DetectorConfig.DEFAULT);
+	}
+
+	/**
+	 * Computes the value of a pixel of the global edge map from its Sobel
+	 * responses. See section IV.B
+	 * @param responses The Sobel responses of the pixel, in the order of
+	 *                  config.getSobelDirections().
+	 * @param config The configuration of the detection.
+	 * @return The value of the pixel after global thresholding.
+	 */
+	static int getGlobalEdgeValue(int[] responses, DetectorConfig config) {
+
+		int maxValue = -1, maxDirection = -1;
+		for (int s = 0; s < responses.length; ++s) {
+			int value = Math.abs(responses[s]);
+			if (value > maxValue) {
+				maxValue = value;
+				maxDirection = s;
+			}
+		}
+
+		int normalDirection = config.getNormalDirectionIndex(maxDirection);
+
+		int value = maxValue
+			+ (int) (Math.abs(responses[normalDirection])
+			* config.getEdgeCorrectionFactor());
+		value = Math.min(value, 255);
+		return value < config.getGlobalEdgeThreshold() ? 0 : value;
+	}
+
 
 	/**
 	 * Applies local thresholding to a gray image. See section IV.B
@@ -100,10 +249,25 @@ class EdgeMap {
 	 * @return The gray image after local thresholding.
 	 */
 	public static GrayImage applyLocalThresholding(GrayImage map) {
+		return applyLocalThresholding(map, CancellationToken.NONE);
+	}
+
+	/**
+	 * Applies local thresholding to a gray image. See section IV.B
+	 * @param map The gray image after global thresholding.
+	 * @param token The token checked while processing the image.
+	 * @return The gray image after local thresholding.
+	 * @throws java.util.concurrent.CancellationException if the token is
+	 *         cancelled.
+	 */
+	public static GrayImage applyLocalThresholding(GrayImage map,
+		CancellationToken token) {
 
-		GrayImage res = new GrayImage(map.getWidth(), map.getHeight());
+		GrayImage res =
+			map.createCompatibleImage(map.getWidth(), map.getHeight());
 
 		for (int j = 0; j < map.getHeight(); j += KERNEL_SIZE) {
+			token.check();
 			for (int i = 0; i < map.getWidth(); i += KERNEL_SIZE) {
 
 				int kernelThreshold = getKernelThreshold(map, i, j);
@@ -138,7 +302,7 @@ class EdgeMap {
 	}
 
 	// TODO: break this down into several methods
-	private static int getKernelThreshold(GrayImage map,
+	static int getKernelThreshold(GrayImage map,
 		int xStart, int yStart) {
 
 		final int WINDOW_SIZE = 3 * KERNEL_SIZE;
@@ -214,33 +378,139 @@ class EdgeMap {
 	public static GrayImage applyTextRecovery(GrayImage map,
 		GrayImage postLocalThresholdMap) {
 
-		GrayImage res = textLabeling(map, postLocalThresholdMap);
+		return applyTextRecovery(
+			map, postLocalThresholdMap, CancellationToken.NONE
+		);
+	}
+
+	/**
+	 * Applies text recovery to the gray image. See section IV.B
+	 * @param map The gray image after global thresholding.
+	 * @param postLocalThresholdMap The gray image after local thresholding.
+	 * @param token The token checked while processing the image.
+	 * @return The gray image after text recovery.
+	 * @throws java.util.concurrent.CancellationException if the token is
+	 *         cancelled.
+	 */
+	public static GrayImage applyTextRecovery(GrayImage map,
+		GrayImage postLocalThresholdMap, CancellationToken token) {
+
+		return applyTextRecovery(
+			map, postLocalThresholdMap, DetectorConfig.DEFAULT, token
+		);
+	}
+
+	/**
+	 * Applies text recovery to the gray image. See section IV.B
+	 * @param map The gray image after global thresholding.
+	 * @param postLocalThresholdMap The gray image after local thresholding.
+	 * @param config The configuration giving the hysteresis mask.
+	 * @param token The token checked while processing the image.
+	 * @return The gray image after text recovery.
+	 * @throws java.util.concurrent.CancellationException if the token is
+	 *         cancelled.
+	 */
+	public static GrayImage applyTextRecovery(GrayImage map,
+		GrayImage postLocalThresholdMap, DetectorConfig config,
+		CancellationToken token) {
+
+		GrayImage res = textLabeling(map, postLocalThresholdMap, token);
+		recoverText(map, res, config, token);
+		return res;
+	}
+
+	/**
+	 * Applies text recovery to the gray image, propagating text on tiles of
+	 * the image concurrently. The result is the same as the one of
+	 * applyTextRecovery(map, postLocalThresholdMap, token), see
+	 * TiledTextRecovery. See section IV.B
+	 * @param map The gray image after global thresholding.
+	 * @param postLocalThresholdMap The gray image after local thresholding.
+	 * @param executor The executor running the propagation of the tiles.
+	 * @param token The token checked while processing the image.
+	 * @return The gray image after text recovery.
+	 * @throws java.util.concurrent.CancellationException if the token is
+	 *         cancelled.
+	 */
+	public static GrayImage applyTextRecovery(GrayImage map,
+		GrayImage postLocalThresholdMap, Executor executor,
+		CancellationToken token) {
+
+		return applyTextRecovery(
+			map, postLocalThresholdMap, DetectorConfig.DEFAULT, executor, token
+		);
+	}
+
+	/**
+	 * Applies text recovery to the gray image, propagating text on tiles of
+	 * the image concurrently. The result is the same as the one of
+	 * applyTextRecovery(map, postLocalThresholdMap, config, token), see
+	 * TiledTextRecovery. See section IV.B
+	 * @param map The gray image after global thresholding.
+	 * @param postLocalThresholdMap The gray image after local thresholding.
+	 * @param config The configuration giving the hysteresis mask.
+	 * @param executor The executor running the propagation of the tiles.
+	 * @param token The token checked while processing the image.
+	 * @return The gray image after text recovery.
+	 * @throws java.util.concurrent.CancellationException if the token is
+	 *         cancelled.
+	 */
+	public static GrayImage applyTextRecovery(GrayImage map,
+		GrayImage postLocalThresholdMap, DetectorConfig config,
+		Executor executor, CancellationToken token) {
+
+		GrayImage res = textLabeling(map, postLocalThresholdMap, token);
+		TiledTextRecovery.recoverText(map, res, config, executor, token);
+		return res;
+	}
+
+	/**
+	 * Propagates text from the labeled pixels to their neighbours, see
+	 * applyTextRecovery.
+	 * @param map The gray image after global thresholding.
+	 * @param res The gray image after text labeling, modified in place.
+	 * @param config The configuration giving the hysteresis mask.
+	 * @param token The token checked while processing the image.
+	 * @throws java.util.concurrent.CancellationException if the token is
+	 *         cancelled.
+	 */
+	static void recoverText(GrayImage map, GrayImage res,
+		DetectorConfig config, CancellationToken token) {
+
+		float[][] mask = config.getHysteresisWeights();
 		TreeSet<Pixel> newTextPixels = new TreeSet<>();
+		int propagations = 0;
 
 		for (int j = 0; j < map.getHeight(); ++j) {
+			token.check();
 			for (int i = 0; i < map.getWidth(); ++i) {
 				newTextPixels.clear();
 				if (res.getValue(i, j) > 0) {
 					int x = i, y = j;
 					do {
+						// a single propagation may cover the whole image
+						if ((++propagations & CHECK_PERIOD_MASK) == 0) {
+							token.check();
+						}
 						if (!newTextPixels.isEmpty()) {
-							Point p = newTextPixels.pollFirst();
-							x = (int) p.getX();
-							y = (int) p.getY();
+							Pixel p = newTextPixels.pollFirst();
+							x = p.getX();
+							y = p.getY();
 						}
-						applyHysteresisMask(map, res, x, y, newTextPixels);
+						applyHysteresisMask(
+							map, res, mask, x, y, newTextPixels
+						);
 					} while (!newTextPixels.isEmpty());
 				}
 			}
 		}
-
-		return res;
 	}
 
 	private static void applyHysteresisMask(GrayImage map,
-		GrayImage textRecoveryMap, int x, int y, Set<Pixel> newTextPixels) {
+		GrayImage textRecoveryMap, float[][] mask, int x, int y,
+		Set<Pixel> newTextPixels) {
 
-		int maskOffset = HYSTERESIS_MASK.length / 2;
+		int maskOffset = mask.length / 2;
 
 		int postLocalThresholdValue = textRecoveryMap.getValue(x, y);
 
@@ -256,7 +526,7 @@ class EdgeMap {
 						textRecoveryMap.getValue(x + i, y + j);
 
 				if (value >= postLocalThresholdValue
-						* HYSTERESIS_MASK[j + maskOffset][i + maskOffset]) {
+						* mask[j + maskOffset][i + maskOffset]) {
 
 					textRecoveryMap.setValue(x + i, y + j, value);
 				} else {
@@ -275,11 +545,13 @@ class EdgeMap {
 	}
 
 	private static GrayImage textLabeling(GrayImage map,
-		GrayImage postLocalThresholdMap) {
+		GrayImage postLocalThresholdMap, CancellationToken token) {
 
-		GrayImage res = new GrayImage(map.getWidth(), map.getHeight());
+		GrayImage res =
+			map.createCompatibleImage(map.getWidth(), map.getHeight());
 
 		for (int j = 0; j < map.getHeight(); j += TEXT_LABELING_RECT_STEP_Y) {
+			token.check();
 			for (int i = 0; i < map.getWidth();
 				i += TEXT_LABELING_RECT_STEP_X) {
 
@@ -0,0 +1,347 @@
+package textlocator;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Locates text on the frames of a video without running the detection on
+ * each of them.
+ * Frames are detected at a low base rate, one every baseStride frames. For
+ * every frame, a cheap signature is computed: the edge strength of each
+ * tile of the frame scaled down by SIGNATURE_SCALE. When a tile differs
+ * enough from the last detected frame, text is assumed to be appearing or
+ * changing, so the frame is detected at once and the rate goes up. It goes
+ * back down as long as consecutive detections find the same text areas.
+ * The frames between two detections get interpolated text areas: those
+ * found by both detections move linearly from one to the other, the others
+ * switch at the midpoint. When the second detection was caused by a change,
+ * the frames before it still look like the first one, so they keep its text
+ * areas.
+ * Results are given in the order of the frames, up to the next detection
+ * later than the frame. Instances are not thread-safe.
+ * @author MX-Futhark
+ */
+public class FrameSampler {
+
+	/**
+	 * Default number of frames between two detections of a stable scene.
+	 */
+	public static final int DEFAULT_BASE_STRIDE = 30;
+
+	/**
+	 * Scale down factor of the frames whose edges make the signature.
+	 */
+	public static final int SIGNATURE_SCALE = 8;
+
+	// in pixels of the scaled down frame
+	private static final int SIGNATURE_TILE_SIZE = 8;
+	// minimum edge strength difference of a tile, as a share of its maximum
+	private static final float CHANGE_THRESHOLD_FACTOR = 0.03f;
+	// the rate is multiplied by RATE_BOOST at most after a change
+	private static final int RATE_BOOST = 8;
+	// the rate is divided by RATE_DROP at most once the scene is stable
+	private static final int RATE_DROP = 4;
+
+	/**
+	 * Receives the text areas of each frame, in the order of the frames.
+	 * @author MX-Futhark
+	 */
+	public interface FrameListener {
+
+		/**
+		 * Called once per submitted frame.
+		 * @param frame The index of the frame, starting from 0.
+		 * @param textAreas The text areas of the frame.
+		 * @param detected True if the detection ran on this frame, false if
+		 *                 its text areas are interpolated.
+		 */
+		void frameDone(long frame, Regions textAreas, boolean detected);
+	}
+
+	private final DetectorConfig config;
+	private final int minStride, baseStride, maxStride;
+	private final FrameListener listener;
+
+	private long frames = 0;
+	private long detectedFrames = 0;
+	private int stride;
+	// state of the last detected frame
+	private long lastFrame = -1;
+	private int[] lastSignature = null;
+	private Regions lastTextAreas = null;
+
+	/**
+	 * Constructor using the default configuration and base rate.
+	 * @param listener The listener receiving the text areas of each frame.
+	 */
+	public FrameSampler(FrameListener listener) {
+		this(DetectorConfig.DEFAULT, DEFAULT_BASE_STRIDE, listener);
+	}
+
+	/**
+	 * Constructor.
+	 * @param config The configuration of the detections.
+	 * @param baseStride The number of frames between two detections of a
+	 *                   stable scene, before the rate goes down, at least 1.
+	 * @param listener The listener receiving the text areas of each frame.
+	 */
+	public FrameSampler(DetectorConfig config, int baseStride,
+		FrameListener listener) {
+
+		if (baseStride < 1) {
+			throw new IllegalArgumentException(
+				"invalid base stride: " + baseStride
+			);
+		}
+		this.config = config;
+		this.minStride = Math.max(1, baseStride / RATE_BOOST);
+		this.baseStride = baseStride;
+		this.maxStride = baseStride * RATE_DROP;
+		this.stride = baseStride;
+		this.listener = listener;
+	}
+
+	/**
+	 * Submits the next frame of the video. The detection runs on it if the
+	 * scene changed or the stride is over, in which case the listener gets
+	 * the text areas of the frames since the previous detection.
+	 * @param rgbPixels The pixels of the frame, packed as 0xRRGGBB integers,
+	 *                  row by row. They are not kept after returning.
+	 * @param width The width of the frame.
+	 * @param height The height of the frame.
+	 */
+	public void submit(int[] rgbPixels, int width, int height) {
+
+		long frame = frames++;
+		int[] signature = getSignature(rgbPixels, width, height);
+
+		boolean changed = lastSignature == null
+			|| hasChanged(lastSignature, signature);
+		if (!changed && frame - lastFrame < stride) {
+			return;
+		}
+
+		Regions textAreas;
+		try {
+			textAreas = MultiresolutionTextPositionDetector.apply(
+				rgbPixels, width, height, config, CancellationToken.NONE
+			).getRegions();
+		} catch (IOException e) {
+			// only writing the debug images, see ImageDebug, can fail
+			throw new UncheckedIOException(e);
+		}
+		++detectedFrames;
+
+		if (lastTextAreas != null) {
+			interpolate(frame, textAreas, changed);
+			if (changed) {
+				stride = minStride;
+			} else if (matchAll(lastTextAreas, textAreas)) {
+				stride = Math.min(2 * stride, maxStride);
+			} else {
+				stride = Math.max(stride / 2, minStride);
+			}
+		}
+		listener.frameDone(frame, textAreas, true);
+
+		lastFrame = frame;
+		lastSignature = signature;
+		lastTextAreas = textAreas;
+	}
+
+	/**
+	 * Gives the frames submitted since the last detection the text areas of
+	 * that detection, e.g. at the end of the video.
+	 */
+	public void flush() {
+		if (lastTextAreas == null) return;
+		for (long f = lastFrame + 1; f < frames; ++f) {
+			listener.frameDone(f, new Regions(lastTextAreas.toArray()), false);
+		}
+		lastFrame = frames - 1;
+	}
+
+	/**
+	 * Getter on the number of submitted frames.
+	 * @return The number of submitted frames.
+	 */
+	public long getFrames() {
+		return frames;
+	}
+
+	/**
+	 * Getter on the number of frames the detection ran on.
+	 * @return The number of detected frames.
+	 */
+	public long getDetectedFrames() {
+		return detectedFrames;
+	}
+
+	/**
+	 * Getter on the number of frames between two detections of a stable
+	 * scene, before the rate goes down.
+	 * @return The base stride.
+	 */
+	public int getBaseStride() {
+		return baseStride;
+	}
+
+	// edge strength of each tile of the scaled down frame, see
+	// SIGNATURE_SCALE and SIGNATURE_TILE_SIZE
+	private static int[] getSignature(int[] rgbPixels, int width,
+		int height) {
+
+		int scaledWidth = Math.max(1, width / SIGNATURE_SCALE),
+			scaledHeight = Math.max(1, height / SIGNATURE_SCALE);
+
+		// average of the luminance of each block
+		int[] sums = new int[scaledWidth * scaledHeight];
+		int[] counts = new int[sums.length];
+		for (int j = 0; j < height; ++j) {
+			int row = Math.min(j / SIGNATURE_SCALE, scaledHeight - 1)
+				* scaledWidth;
+			for (int i = 0; i < width; ++i) {
+				int block =
+					row + Math.min(i / SIGNATURE_SCALE, scaledWidth - 1);
+				sums[block] += GrayImage.desaturate(
+					rgbPixels[j * width + i],
+					GrayImage.DesaturationMethod.LUMINANCE
+				);
+				++counts[block];
+			}
+		}
+		GrayImage scaled = new GrayImage(scaledWidth, scaledHeight);
+		for (int j = 0; j < scaledHeight; ++j) {
+			for (int i = 0; i < scaledWidth; ++i) {
+				int block = j * scaledWidth + i;
+				scaled.setValue(i, j, sums[block] / counts[block]);
+			}
+		}
+
+		GrayImage edges = EdgeMap.applyGlobalThresholding(
+			scaled, DetectorConfig.FAST, CancellationToken.NONE
+		);
+
+		int columns = (scaledWidth + SIGNATURE_TILE_SIZE - 1)
+			/ SIGNATURE_TILE_SIZE;
+		int rows = (scaledHeight + SIGNATURE_TILE_SIZE - 1)
+			/ SIGNATURE_TILE_SIZE;
+		int[] signature = new int[columns * rows];
+		for (int j = 0; j < scaledHeight; ++j) {
+			int row = j / SIGNATURE_TILE_SIZE * columns;
+			for (int i = 0; i < scaledWidth; ++i) {
+				signature[row + i / SIGNATURE_TILE_SIZE] +=
+					edges.getValue(i, j);
+			}
+		}
+
+		return signature;
+	}
+
+	// tells whether a tile of the signatures differs enough, or the frame
+	// size changed
+	private static boolean hasChanged(int[] previous, int[] current) {
+
+		if (previous.length != current.length) return true;
+
+		int tilePixels = SIGNATURE_TILE_SIZE * SIGNATURE_TILE_SIZE;
+		float threshold = CHANGE_THRESHOLD_FACTOR * 255 * tilePixels;
+		for (int t = 0; t < current.length; ++t) {
+			if (Math.abs(current[t] - previous[t]) > threshold) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// gives text areas to the frames between the last detected one and the
+	// given one, see the class description
+	private void interpolate(long frame, Regions textAreas, boolean changed) {
+
+		int[] matches = match(lastTextAreas, textAreas);
+		boolean[] matched = new boolean[textAreas.size()];
+		for (int m : matches) {
+			if (m >= 0) matched[m] = true;
+		}
+
+		long span = frame - lastFrame;
+		for (long f = lastFrame + 1; f < frame; ++f) {
+
+			if (changed) {
+				listener.frameDone(
+					f, new Regions(lastTextAreas.toArray()), false
+				);
+				continue;
+			}
+
+			float t = (float) (f - lastFrame) / span;
+			Regions res = new Regions();
+			for (int i = 0; i < lastTextAreas.size(); ++i) {
+				int m = matches[i];
+				if (m >= 0) {
+					res.add(
+						lerp(lastTextAreas.getX(i), textAreas.getX(m), t),
+						lerp(lastTextAreas.getY(i), textAreas.getY(m), t),
+						lerp(
+							lastTextAreas.getWidth(i), textAreas.getWidth(m), t
+						),
+						lerp(
+							lastTextAreas.getHeight(i), textAreas.getHeight(m),
+							t
+						)
+					);
+				} else if (t < 0.5f) {
+					res.add(lastTextAreas, i);
+				}
+			}
+			if (t >= 0.5f) {
+				for (int m = 0; m < textAreas.size(); ++m) {
+					if (!matched[m]) res.add(textAreas, m);
+				}
+			}
+			listener.frameDone(f, res, false);
+		}
+	}
+
+	private static int lerp(int from, int to, float t) {
+		return Math.round(from + (to - from) * t);
+	}
+
+	// tells whether each text area of both sets overlaps one of the other
+	private static boolean matchAll(Regions previous, Regions current) {
+		if (previous.size() != current.size()) return false;
+		for (int m : match(previous, current)) {
+			if (m < 0) return false;
+		}
+		return true;
+	}
+
+	// pairs each previous text area with the free current one it overlaps
+	// most, -1 if none
+	private static int[] match(Regions previous, Regions current) {
+
+		int[] matches = new int[previous.size()];
+		boolean[] taken = new boolean[current.size()];
+		for (int i = 0; i < previous.size(); ++i) {
+			matches[i] = -1;
+			long bestOverlap = 0;
+			for (int m = 0; m < current.size(); ++m) {
+				if (taken[m]) continue;
+				long overlap = (long) Math.max(0,
+					Math.min(previous.getMaxX(i), current.getMaxX(m))
+						- Math.max(previous.getX(i), current.getX(m))
+				) * Math.max(0,
+					Math.min(previous.getMaxY(i), current.getMaxY(m))
+						- Math.max(previous.getY(i), current.getY(m))
+				);
+				if (overlap > bestOverlap) {
+					bestOverlap = overlap;
+					matches[i] = m;
+				}
+			}
+			if (matches[i] >= 0) taken[matches[i]] = true;
+		}
+		return matches;
+	}
+
+}
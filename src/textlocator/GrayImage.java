@@ -1,6 +1,6 @@
 package textlocator;
 
-import java.awt.image.BufferedImage;
+import java.util.Arrays;
 
 /**
  * Represents an image in levels of gray.
@@ -16,6 +16,9 @@ class GrayImage {
 		AVERAGE, LUMINANCE, DESATURATION, GREEN_ONLY
 	}
 
+	// side of the square blocks copied at once by transpose
+	private static final int TRANSPOSE_BLOCK_SIZE = 32;
+
 	private int[][] values;
 
 	/**
@@ -28,38 +31,29 @@ class GrayImage {
 	}
 
 	/**
-	 * Constructor for a gray image from a color image.
-	 * @param rgbImg The RGB image.
-	 * @param method The desaturation method.
+	 * Constructor for subclasses providing their own pixel storage. Such
+	 * subclasses must override the getters and setters on pixels and sizes.
 	 */
-	public GrayImage(BufferedImage rgbImg, DesaturationMethod method) {
-		this(rgbImg.getWidth(), rgbImg.getHeight());
-		for (int j = 0; j < getHeight(); ++j) {
-			for (int i = 0; i < getWidth(); ++i) {
-				switch (method) {
-				case AVERAGE:
-					setValue(i, j, average(rgbImg.getRGB(i, j)));
-					break;
-				case LUMINANCE:
-					setValue(i, j, luminance(rgbImg.getRGB(i, j)));
-					break;
-				case DESATURATION:
-					setValue(i, j, desaturation(rgbImg.getRGB(i, j)));
-					break;
-				case GREEN_ONLY:
-					setValue(i, j, (rgbImg.getRGB(i, j) >> 8) & 0xFF);
-					break;
-				}
-			}
-		}
+	protected GrayImage() {
+		values = null;
 	}
 
 	/**
-	 * Constructor of a GrayImage from a BufferedImage already in gray.
-	 * @param grayImg The gray image to convert.
+	 * Constructor for a gray image from the pixels of a color image.
+	 * @param rgbPixels The RGB pixels of the image, row by row.
+	 * @param width The width of the image.
+	 * @param height The height of the image.
+	 * @param method The desaturation method.
 	 */
-	public GrayImage(BufferedImage grayImg) {
-		this(grayImg, DesaturationMethod.GREEN_ONLY);
+	public GrayImage(int[] rgbPixels, int width, int height,
+		DesaturationMethod method) {
+
+		this(width, height);
+		for (int j = 0; j < height; ++j) {
+			for (int i = 0; i < width; ++i) {
+				setValue(i, j, desaturate(rgbPixels[j * width + i], method));
+			}
+		}
 	}
 
 	/**
@@ -78,6 +72,26 @@ class GrayImage {
 		return getHeight() > 0 ? values[0].length : 0;
 	}
 
+	/**
+	 * Computes the level of gray of a color pixel.
+	 * @param rgb The color pixel.
+	 * @param method The desaturation method.
+	 * @return The level of gray of the pixel.
+	 */
+	public static int desaturate(int rgb, DesaturationMethod method) {
+		switch (method) {
+		case AVERAGE:
+			return average(rgb);
+		case LUMINANCE:
+			return luminance(rgb);
+		case DESATURATION:
+			return desaturation(rgb);
+		case GREEN_ONLY:
+			return (rgb >> 8) & 0xFF;
+		}
+		return 0;
+	}
+
 	// average value of a color pixel
 	private static int average(int rgb) {
 		return ((rgb & 0xFF)
@@ -92,6 +106,34 @@ class GrayImage {
 			+ 0.2126 * ((rgb >> 16) & 0xFF)); // r
 	}
 
+	/**
+	 * Provides the blue-difference chroma of a pixel, computed with the same
+	 * weights as the luminance, 128 being neutral.
+	 * @param rgb The pixel, packed as a 0xRRGGBB integer.
+	 * @return The blue-difference chroma, between 0 and 255.
+	 */
+	static int blueChroma(int rgb) {
+		double b = rgb & 0xFF,
+			y = 0.0722 * b
+				+ 0.7152 * ((rgb >> 8) & 0xFF)
+				+ 0.2126 * ((rgb >> 16) & 0xFF);
+		return (int) (128 + (b - y) / 1.8556);
+	}
+
+	/**
+	 * Provides the red-difference chroma of a pixel, computed with the same
+	 * weights as the luminance, 128 being neutral.
+	 * @param rgb The pixel, packed as a 0xRRGGBB integer.
+	 * @return The red-difference chroma, between 0 and 255.
+	 */
+	static int redChroma(int rgb) {
+		double r = (rgb >> 16) & 0xFF,
+			y = 0.0722 * (rgb & 0xFF)
+				+ 0.7152 * ((rgb >> 8) & 0xFF)
+				+ 0.2126 * r;
+		return (int) (128 + (r - y) / 1.5748);
+	}
+
 	// desaturated value of a color pixel
 	private static int desaturation(int rgb) {
 		int b = (rgb & 0xFF),
@@ -122,20 +164,160 @@ class GrayImage {
 	}
 
 	/**
-	 * Converts the GrayImage into a BufferedImage.
-	 * @return The corresponding BufferedImage.
+	 * Creates a black image using the same kind of pixel storage as this one.
+	 * @param width The width of the new image.
+	 * @param height The height of the new image.
+	 * @return The new image.
+	 */
+	public GrayImage createCompatibleImage(int width, int height) {
+		return new GrayImage(width, height);
+	}
+
+	/**
+	 * Provides a window on a part of the image. The window shares the pixels
+	 * of this image, and reading over its edges returns the pixels of this
+	 * image.
+	 * @param x The X coordinate of the window.
+	 * @param y The Y coordinate of the window.
+	 * @param width The width of the window.
+	 * @param height The height of the window.
+	 * @return The window.
 	 */
-	public BufferedImage toBufferedImage() {
-		BufferedImage res = new BufferedImage(
-			getWidth(),
-			getHeight(),
-			BufferedImage.TYPE_INT_RGB
+	public GrayImage getSubimage(int x, int y, int width, int height) {
+		return new GrayImageView(this, x, y, width, height);
+	}
+
+	/**
+	 * Resizes the image, averaging the pixels covered by each pixel of the
+	 * resized image. Scale factors do not need to be integers.
+	 * Source and resized pixels are measured in integer units, so that the
+	 * result is the same as AWT's area averaging scale filter.
+	 * @param width The width of the resized image.
+	 * @param height The height of the resized image.
+	 * @return The resized image.
+	 */
+	public GrayImage getScaledInstance(int width, int height) {
+		return getScaledArea(
+			new int[] {0, 0, getWidth(), getHeight()}, width, height,
+			new int[] {0, 0, width, height}
 		);
+	}
+
+	/**
+	 * Resizes a larger image of which this image is a window, and provides a
+	 * window of the resized image, only reading the pixels under it. The
+	 * pixels of the window are the same as those of the whole resized image,
+	 * see getScaledInstance(int, int).
+	 * @param frame The position of this image in the larger image, and the
+	 *              size of the larger image: {x, y, width, height}.
+	 * @param width The width of the resized image.
+	 * @param height The height of the resized image.
+	 * @param window The window of the resized image to provide:
+	 *               {x, y, width, height}. The pixels of the larger image it
+	 *               covers must be in this image.
+	 * @return The window of the resized image.
+	 */
+	public GrayImage getScaledArea(int[] frame, int width, int height,
+		int[] window) {
+
+		GrayImage res = createCompatibleImage(window[2], window[3]);
+		if (window[2] == 0 || window[3] == 0) return res;
+
+		int srcWidth = frame[2], srcHeight = frame[3],
+			maxDx = window[0] + window[2], maxDy = window[1] + window[3];
+		// a source pixel is width x height units wide, a resized one is
+		// srcWidth x srcHeight units wide
+		float area = (float) srcWidth * srcHeight;
+		float[] totals = new float[window[2]];
+
+		long startX = (long) window[0] * srcWidth,
+			startY = (long) window[1] * srcHeight;
+		int sx0 = (int) (startX / width),
+			sxRem0 = (int) ((long) (sx0 + 1) * width - startX);
+
+		int sy = (int) (startY / height),
+			syRem = (int) ((long) (sy + 1) * height - startY),
+			dy = window[1], dyRem = 0;
+		while (dy < maxDy) {
+
+			if (dyRem == 0) {
+				Arrays.fill(totals, 0f);
+				dyRem = srcHeight;
+			}
+			int amountY = Math.min(syRem, dyRem);
+
+			int sx = sx0, sxRem = sxRem0, dx = window[0], dxRem = srcWidth;
+			float value = getValue(sx - frame[0], sy - frame[1]);
+			while (dx < maxDx) {
+				if (sxRem == 0) {
+					sxRem = width;
+					value = getValue(sx - frame[0], sy - frame[1]);
+				}
+				int amountX = Math.min(sxRem, dxRem);
+				totals[dx - window[0]] += ((float) amountX * amountY) * value;
+				if ((sxRem -= amountX) == 0) {
+					++sx;
+				}
+				if ((dxRem -= amountX) == 0) {
+					++dx;
+					dxRem = srcWidth;
+				}
+			}
+
+			if ((dyRem -= amountY) == 0) {
+				for (int i = 0; i < totals.length; ++i) {
+					res.setValue(
+						i, dy - window[1], Math.round(totals[i] / area)
+					);
+				}
+				++dy;
+			}
+			if ((syRem -= amountY) == 0) {
+				syRem = height;
+				++sy;
+			}
+		}
+
+		return res;
+	}
+
+	/**
+	 * Transposes the image, so that its columns become rows.
+	 * The pixels are copied block by block to limit cache misses on both
+	 * images.
+	 * @return The transposed image, using the same kind of storage.
+	 */
+	public GrayImage transpose() {
+
+		int width = getWidth(), height = getHeight();
+		GrayImage res = createCompatibleImage(height, width);
+
+		for (int j0 = 0; j0 < height; j0 += TRANSPOSE_BLOCK_SIZE) {
+			int maxJ = Math.min(j0 + TRANSPOSE_BLOCK_SIZE, height);
+			for (int i0 = 0; i0 < width; i0 += TRANSPOSE_BLOCK_SIZE) {
+				int maxI = Math.min(i0 + TRANSPOSE_BLOCK_SIZE, width);
+				for (int j = j0; j < maxJ; ++j) {
+					for (int i = i0; i < maxI; ++i) {
+						res.setValue(j, i, getValue(i, j));
+					}
+				}
+			}
+		}
+
+		return res;
+	}
+
+	/**
+	 * Copies the image into a new image using the same kind of storage.
+	 * @return The copy.
+	 */
+	public GrayImage copy() {
+
+		GrayImage res = createCompatibleImage(getWidth(), getHeight());
 
 		for (int j = 0; j < getHeight(); ++j) {
 			for (int i = 0; i < getWidth(); ++i) {
-				int value = Math.min(Math.max(getValue(i, j), 0), 255);
-				res.setRGB(i, j, (value << 16) | (value << 8) | value);
+				res.setValue(i, j, getValue(i, j));
 			}
 		}
 
@@ -0,0 +1,75 @@
+package textlocator;
+
+/**
+ * Rectangular window on another gray image, sharing its pixels.
+ * Reading over the edge of the window returns the pixels of the underlying
+ * image when they exist, so that filters applied to the window give the same
+ * results as on the whole image.
+ * @author MX-Futhark
+ */
+class GrayImageView extends GrayImage {
+
+	private final GrayImage parent;
+	private final int offsetX;
+	private final int offsetY;
+	private final int width;
+	private final int height;
+
+	/**
+	 * Constructor.
+	 * @param parent The underlying image.
+	 * @param x The X coordinate of the window in the underlying image.
+	 * @param y The Y coordinate of the window in the underlying image.
+	 * @param width The width of the window.
+	 * @param height The height of the window.
+	 */
+	public GrayImageView(GrayImage parent, int x, int y, int width,
+		int height) {
+
+		if (x < 0 || y < 0 || width < 0 || height < 0
+			|| x + width > parent.getWidth()
+			|| y + height > parent.getHeight()) {
+
+			throw new IllegalArgumentException(String.format(
+				"window (%d, %d, %d, %d) outside of a %dx%d image",
+				x, y, width, height, parent.getWidth(), parent.getHeight()
+			));
+		}
+		this.parent = parent;
+		this.offsetX = x;
+		this.offsetY = y;
+		this.width = width;
+		this.height = height;
+	}
+
+	@Override
+	public int getHeight() {
+		return height;
+	}
+
+	@Override
+	public int getWidth() {
+		return width;
+	}
+
+	@Override
+	public int getValue(int x, int y) {
+		return parent.getValue(x + offsetX, y + offsetY);
+	}
+
+	@Override
+	public void setValue(int x, int y, int value) {
+		parent.setValue(x + offsetX, y + offsetY, value);
+	}
+
+	@Override
+	public int getExtendedValue(int x, int y, boolean extendEdge) {
+		return parent.getExtendedValue(x + offsetX, y + offsetY, extendEdge);
+	}
+
+	@Override
+	public GrayImage createCompatibleImage(int width, int height) {
+		return parent.createCompatibleImage(width, height);
+	}
+
+}
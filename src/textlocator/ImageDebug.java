@@ -1,5 +1,6 @@
 package textlocator;
 
+import java.awt.Color;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
@@ -8,6 +9,8 @@ import javax.imageio.ImageIO;
 
 /**
  * Utility class to output intermediate results.
+ * Conversions to AWT images only happen when debugging is on, so that the
+ * pipeline does not load AWT otherwise.
  * @author MX-Futhark
  */
 class ImageDebug {
@@ -33,6 +36,44 @@ class ImageDebug {
 	 * @throws IOException
 	 */
 	public static void print(GrayImage img, String imgName) throws IOException {
-		print(img.toBufferedImage(), imgName);
+
+		if (!DEBUG) return;
+
+		print(AwtAdapter.toBufferedImage(img), imgName);
+	}
+
+	/**
+	 * Prints the given image in levels of gray with the bounds of regions.
+	 * @param img The image to print.
+	 * @param regions The regions to draw.
+	 * @throws IOException
+	 */
+	public static void print(GrayImage img, Regions regions, String imgName)
+		throws IOException {
+
+		if (!DEBUG) return;
+
+		BufferedImage res = AwtAdapter.toBufferedImage(img);
+		AwtAdapter.drawRegions(res, regions, Color.YELLOW);
+		print(res, imgName);
+	}
+
+	/**
+	 * Prints a copy of the given image with the bounds of regions.
+	 * @param img The image to print.
+	 * @param regions The regions to draw.
+	 * @throws IOException
+	 */
+	public static void print(BufferedImage img, Regions regions,
+		String imgName) throws IOException {
+
+		if (!DEBUG) return;
+
+		BufferedImage res = new BufferedImage(
+			img.getWidth(), img.getHeight(), BufferedImage.TYPE_INT_RGB
+		);
+		res.getGraphics().drawImage(img, 0, 0, null);
+		AwtAdapter.drawRegions(res, regions, Color.MAGENTA);
+		print(res, imgName);
 	}
 }
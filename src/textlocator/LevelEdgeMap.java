@@ -0,0 +1,198 @@
+package textlocator;
+
+/**
+ * Edge maps of one pyramid level computed in a single pass over the resized
+ * global edge map, see section IV.B. While each kernel is thresholded, the
+ * pass also accumulates:
+ *  - the sums of the text labeling cells, the labeling rectangles being made
+ *    of 2 x 2 cells of TEXT_LABELING_RECT_STEP_X x TEXT_LABELING_RECT_STEP_Y
+ *    pixels,
+ *  - the row and column projections of an area of the map, which are the
+ *    projections of the root region of region detection, in the units of
+ *    the projection of the configuration.
+ * Only the map after local thresholding is materialized. The text recovery
+ * map is built from the cell sums when requested.
+ * The results are the same as those of EdgeMap.applyLocalThresholding,
+ * EdgeMap.applyTextRecovery and the root projections of
+ * UniresolutionTextPositionDetector.
+ * @author MX-Futhark
+ */
+class LevelEdgeMap {
+
+	private static final int CELL_WIDTH = EdgeMap.TEXT_LABELING_RECT_STEP_X;
+	private static final int CELL_HEIGHT = EdgeMap.TEXT_LABELING_RECT_STEP_Y;
+
+	private final GrayImage postLocalThresholdMap;
+	private final int[] rowProjection, columnProjection;
+	private final int cellColumns, cellRows;
+	private final int[] cellSums;
+	private final DetectorConfig config;
+
+	/**
+	 * Computes the edge maps of a level.
+	 * @param map The resized edge map after global thresholding.
+	 * @param areaX The X coordinate of the area to project.
+	 * @param areaY The Y coordinate of the area to project.
+	 * @param areaWidth The width of the area to project.
+	 * @param areaHeight The height of the area to project.
+	 * @param config The configuration giving the projection and the
+	 *        hysteresis mask.
+	 * @param token The token checked while processing the map.
+	 * @throws java.util.concurrent.CancellationException if the token is
+	 *         cancelled.
+	 */
+	public LevelEdgeMap(GrayImage map, int areaX, int areaY, int areaWidth,
+		int areaHeight, DetectorConfig config, CancellationToken token) {
+
+		int width = map.getWidth(), height = map.getHeight(),
+			areaMaxX = areaX + areaWidth, areaMaxY = areaY + areaHeight;
+
+		this.postLocalThresholdMap = map.createCompatibleImage(width, height);
+		this.rowProjection = new int[areaHeight];
+		this.columnProjection = new int[areaWidth];
+		this.cellColumns = (width + CELL_WIDTH - 1) / CELL_WIDTH;
+		this.cellRows = (height + CELL_HEIGHT - 1) / CELL_HEIGHT;
+		this.cellSums = new int[cellColumns * cellRows];
+		this.config = config;
+
+		for (int j = 0; j < height; j += EdgeMap.KERNEL_SIZE) {
+			token.check();
+			for (int i = 0; i < width; i += EdgeMap.KERNEL_SIZE) {
+
+				int kernelThreshold = EdgeMap.getKernelThreshold(map, i, j);
+
+				int maxX = Math.min(i + EdgeMap.KERNEL_SIZE, width),
+					maxY = Math.min(j + EdgeMap.KERNEL_SIZE, height);
+
+				for (int l = j; l < maxY; ++l) {
+					boolean inAreaRow = l >= areaY && l < areaMaxY;
+					int cellRow = l / CELL_HEIGHT * cellColumns;
+					for (int k = i; k < maxX; ++k) {
+						int value = map.getValue(k, l);
+						if (value < kernelThreshold) continue;
+
+						postLocalThresholdMap.setValue(k, l, value);
+						cellSums[cellRow + k / CELL_WIDTH] += value;
+						if (inAreaRow && k >= areaX && k < areaMaxX) {
+							int projected = config.getProjectionValue(value);
+							rowProjection[l - areaY] += projected;
+							columnProjection[k - areaX] += projected;
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Getter on the edge map after local thresholding.
+	 * @return The edge map after local thresholding.
+	 */
+	public GrayImage getPostLocalThresholdMap() {
+		return postLocalThresholdMap;
+	}
+
+	/**
+	 * Provides the sum of each row of the projected area of the edge map after
+	 * local thresholding.
+	 * @return The horizontal projection of the area.
+	 */
+	public int[] getRowProjection() {
+		return rowProjection.clone();
+	}
+
+	/**
+	 * Provides the sum of each column of the projected area of the edge map
+	 * after local thresholding.
+	 * @return The vertical projection of the area.
+	 */
+	public int[] getColumnProjection() {
+		return columnProjection.clone();
+	}
+
+	/**
+	 * Applies text recovery to the edge map after local thresholding, using it
+	 * as the global edge map too, as EdgeMap.applyTextRecovery(map, map)
+	 * would. The labeled pixels are found from the cell sums, without reading
+	 * the map again, and text is propagated on tiles of the map concurrently,
+	 * see TiledTextRecovery.
+	 * @param token The token checked while processing the map.
+	 * @return The edge map after text recovery.
+	 * @throws java.util.concurrent.CancellationException if the token is
+	 *         cancelled.
+	 */
+	public GrayImage getTextRecoveryMap(CancellationToken token) {
+
+		int width = postLocalThresholdMap.getWidth(),
+			height = postLocalThresholdMap.getHeight();
+		GrayImage res = postLocalThresholdMap.createCompatibleImage(
+			width, height
+		);
+
+		// a labeling rectangle starts at each cell
+		boolean[] textRects = new boolean[cellSums.length];
+		for (int r = 0; r < cellRows; ++r) {
+			for (int c = 0; c < cellColumns; ++c) {
+				textRects[r * cellColumns + c] = isTextRect(c, r);
+			}
+		}
+
+		// a cell is labeled if one of the rectangles covering it is text
+		for (int r = 0; r < cellRows; ++r) {
+			token.check();
+			for (int c = 0; c < cellColumns; ++c) {
+				if (!textRects[r * cellColumns + c]
+					&& !(c > 0 && textRects[r * cellColumns + c - 1])
+					&& !(r > 0 && textRects[(r - 1) * cellColumns + c])
+					&& !(c > 0 && r > 0
+						&& textRects[(r - 1) * cellColumns + c - 1])) {
+
+					continue;
+				}
+				int maxX = Math.min((c + 1) * CELL_WIDTH, width),
+					maxY = Math.min((r + 1) * CELL_HEIGHT, height);
+				for (int l = r * CELL_HEIGHT; l < maxY; ++l) {
+					for (int k = c * CELL_WIDTH; k < maxX; ++k) {
+						res.setValue(
+							k, l, postLocalThresholdMap.getValue(k, l)
+						);
+					}
+				}
+			}
+		}
+
+		TiledTextRecovery.recoverText(
+			postLocalThresholdMap, res, config, token
+		);
+
+		return res;
+	}
+
+	// same test as EdgeMap.textLabeling for the rectangle starting at a cell
+	private boolean isTextRect(int c, int r) {
+
+		int x = c * CELL_WIDTH, y = r * CELL_HEIGHT,
+			maxX = Math.min(
+				x + EdgeMap.TEXT_LABELING_RECT_WIDTH,
+				postLocalThresholdMap.getWidth()
+			),
+			maxY = Math.min(
+				y + EdgeMap.TEXT_LABELING_RECT_HEIGHT,
+				postLocalThresholdMap.getHeight()
+			);
+
+		int totalEdgeStrength = 0,
+			pixelsNumber = (maxX - x) * (maxY - y);
+		for (int l = r; l < r + 2 && l < cellRows; ++l) {
+			for (int k = c; k < c + 2 && k < cellColumns; ++k) {
+				totalEdgeStrength += cellSums[l * cellColumns + k];
+			}
+		}
+
+		int edgeDensity = totalEdgeStrength / 255;
+
+		return edgeDensity
+			> EdgeMap.EDGE_DENSITY_THRESHOLD_FACTOR * pixelsNumber;
+	}
+
+}
@@ -0,0 +1,66 @@
+package textlocator;
+
+import java.awt.Rectangle;
+import java.util.List;
+
+/**
+ * Text areas found at one level of the pyramid, see
+ * MultiresolutionTextPositionDetector.LevelListener.
+ * @author MX-Futhark
+ */
+public class LevelResult {
+
+	private final int level;
+	private final float scaleDownFactor;
+	private final Regions regions;
+
+	/**
+	 * Constructor.
+	 * @param level The level of the pyramid.
+	 * @param scaleDownFactor The scale down factor of the level.
+	 * @param regions The text areas found at this level.
+	 */
+	LevelResult(int level, float scaleDownFactor, Regions regions) {
+		this.level = level;
+		this.scaleDownFactor = scaleDownFactor;
+		this.regions = regions;
+	}
+
+	/**
+	 * Getter on the level of the pyramid.
+	 * @return The level of the pyramid.
+	 */
+	public int getLevel() {
+		return level;
+	}
+
+	/**
+	 * Getter on the scale down factor of the level.
+	 * @return The scale down factor of the level.
+	 */
+	public float getScaleDownFactor() {
+		return scaleDownFactor;
+	}
+
+	/**
+	 * Getter on the text areas found at this level.
+	 * @return A copy of the text areas, in the coordinates of the image.
+	 */
+	public Regions getRegions() {
+		return new Regions(regions.toArray());
+	}
+
+	/**
+	 * Getter on the text areas found at this level, as AWT rectangles.
+	 * @return The text areas, in the coordinates of the image.
+	 */
+	public List<Rectangle> getTextAreas() {
+		return AwtAdapter.toRectangles(regions);
+	}
+
+	@Override
+	public String toString() {
+		return "level " + level + ": " + regions;
+	}
+
+}
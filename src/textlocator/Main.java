@@ -2,12 +2,34 @@ package textlocator;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Paths;
 
 import javax.imageio.ImageIO;
 
 public class Main {
 
+	/**
+	 * Usage:
+	 *  - Main IMAGE: prints the text areas of an image,
+	 *  - Main --server [--threads N] [--heap-budget MB]
+	 *    [--port PORT | --socket PATH]: serves requests from the standard
+	 *    input, a loopback TCP port or a Unix domain socket, see
+	 *    DetectorServer,
+	 *  - Main --shard FRAMES_DIR WORK_DIR [--from N] [--to N]
+	 *    [--shard-size N] [--stride N] [--profile PROFILE] [--frame-rate F]
+	 *    [--merge INDEX]: processes the shards of the frames of a video
+	 *    along with the other workers sharing the work directory, then
+	 *    merges the results into a result index, see ShardWorker.
+	 */
 	public static void main(String[] argv) {
+		if (argv.length > 0 && argv[0].equals("--server")) {
+			serve(argv);
+			return;
+		} else if (argv.length > 0 && argv[0].equals("--shard")) {
+			shard(argv);
+			return;
+		}
+
 		BufferedImage rgbImg = null;
 		try {
 			rgbImg = ImageIO.read(new File(argv[0]));
@@ -17,4 +39,80 @@ public class Main {
 		}
 	}
 
+	private static void shard(String[] argv) {
+		long from = 0, to = -1;
+		int shardSize = 1000, stride = 1;
+		String profile = null, mergePath = null;
+		float frameRate = 30f;
+
+		for (int i = 3; i + 1 < argv.length; i += 2) {
+			switch (argv[i]) {
+			case "--from": from = Long.parseLong(argv[i + 1]); break;
+			case "--to": to = Long.parseLong(argv[i + 1]); break;
+			case "--shard-size":
+				shardSize = Integer.parseInt(argv[i + 1]);
+				break;
+			case "--stride": stride = Integer.parseInt(argv[i + 1]); break;
+			case "--profile": profile = argv[i + 1]; break;
+			case "--frame-rate":
+				frameRate = Float.parseFloat(argv[i + 1]);
+				break;
+			case "--merge": mergePath = argv[i + 1]; break;
+			default:
+				throw new IllegalArgumentException("unknown option " + argv[i]);
+			}
+		}
+
+		try {
+			ShardWorker worker = new ShardWorker(
+				Paths.get(argv[1]), Paths.get(argv[2]), from, to, shardSize,
+				stride, profile, frameRate
+			);
+			System.out.println(worker.run() + " frames detected");
+			if (mergePath != null) {
+				worker.merge(Paths.get(mergePath));
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private static void serve(String[] argv) {
+		int threads = Runtime.getRuntime().availableProcessors(), port = -1;
+		long heapBudget = -1;
+		String socketPath = null;
+
+		for (int i = 1; i + 1 < argv.length; i += 2) {
+			switch (argv[i]) {
+			case "--threads": threads = Integer.parseInt(argv[i + 1]); break;
+			case "--port": port = Integer.parseInt(argv[i + 1]); break;
+			case "--socket": socketPath = argv[i + 1]; break;
+			case "--heap-budget":
+				heapBudget = Long.parseLong(argv[i + 1]) << 20;
+				break;
+			default:
+				throw new IllegalArgumentException("unknown option " + argv[i]);
+			}
+		}
+
+		DetectorServer server = new DetectorServer(
+			threads,
+			heapBudget > 0
+				? new AdmissionController(heapBudget)
+				: new AdmissionController()
+		);
+		try {
+			server.warmUp();
+			if (socketPath != null) {
+				server.serveUnixSocket(Paths.get(socketPath));
+			} else if (port >= 0) {
+				server.serveLocalPort(port);
+			} else {
+				server.serveStandardStreams();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
 }
@@ -0,0 +1,1186 @@
+package textlocator;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Runs the multiresolution pipeline on gray images, see Fig2.
+ * Does not depend on AWT, so that it can run on headless systems and read
+ * pixels from any source. TextPositionDetector adapts it to AWT images.
+ * @author MX-Futhark
+ */
+public class MultiresolutionTextPositionDetector {
+
+	/**
+	 * Receives the text areas found at each level of the pyramid, as soon as
+	 * the level is done.
+	 * @author MX-Futhark
+	 */
+	public interface LevelListener {
+
+		/**
+		 * Called once per level, in the order of the schedule. Skipped levels
+		 * give no text area.
+		 * @param level The level of the pyramid.
+		 * @param scaleDownFactor The scale down factor of the level.
+		 * @param textAreas The text areas found at this level only, in the
+		 *                  coordinates of the original image, before the
+		 *                  near-duplicates of all levels are merged.
+		 */
+		void levelDone(int level, float scaleDownFactor, Regions textAreas);
+	}
+
+	/**
+	 * Applies the full multiresolution pipeline on raw pixels.
+	 * @param rgbPixels The pixels of the image, packed as 0xRRGGBB integers,
+	 *                  row by row.
+	 * @param width The width of the image.
+	 * @param height The height of the image.
+	 * @return All found text areas.
+	 * @throws IOException
+	 */
+	public static Regions apply(int[] rgbPixels, int width, int height)
+		throws IOException {
+
+		return apply(
+			rgbPixels, width, height, PyramidSchedule.DEFAULT,
+			CancellationToken.NONE
+		).getRegions();
+	}
+
+	/**
+	 * Applies the full multiresolution pipeline on raw pixels with the given
+	 * resolutions until it ends or the token is cancelled.
+	 * @param rgbPixels The pixels of the image, packed as 0xRRGGBB integers,
+	 *                  row by row.
+	 * @param width The width of the image.
+	 * @param height The height of the image.
+	 * @param schedule The resolutions to work with.
+	 * @param token The token to stop the detection, e.g. after a deadline.
+	 * @return The text areas found, possibly partial.
+	 * @throws IOException
+	 */
+	public static DetectionResult apply(int[] rgbPixels, int width,
+		int height, PyramidSchedule schedule, CancellationToken token)
+		throws IOException {
+
+		return apply(
+			rgbPixels, width, height, schedule, TextOrientation.HORIZONTAL,
+			token
+		);
+	}
+
+	/**
+	 * Applies the full multiresolution pipeline on raw pixels with the given
+	 * resolutions and text orientation until it ends or the token is
+	 * cancelled.
+	 * @param rgbPixels The pixels of the image, packed as 0xRRGGBB integers,
+	 *                  row by row.
+	 * @param width The width of the image.
+	 * @param height The height of the image.
+	 * @param schedule The resolutions to work with.
+	 * @param orientation The orientation of the text to look for.
+	 * @param token The token to stop the detection, e.g. after a deadline.
+	 * @return The text areas found, possibly partial.
+	 * @throws IOException
+	 */
+	public static DetectionResult apply(int[] rgbPixels, int width,
+		int height, PyramidSchedule schedule, TextOrientation orientation,
+		CancellationToken token) throws IOException {
+
+		return apply(
+			rgbPixels, width, height,
+			DetectorConfig.DEFAULT.withSchedule(schedule)
+				.withOrientation(orientation),
+			token
+		);
+	}
+
+	/**
+	 * Applies the full multiresolution pipeline on raw pixels with the given
+	 * configuration until it ends or the token is cancelled.
+	 * @param rgbPixels The pixels of the image, packed as 0xRRGGBB integers,
+	 *                  row by row.
+	 * @param width The width of the image.
+	 * @param height The height of the image.
+	 * @param config The configuration of the detection, e.g.
+	 *               DetectorConfig.FAST for real-time detection.
+	 * @param token The token to stop the detection, e.g. after a deadline.
+	 * @return The text areas found, possibly partial.
+	 * @throws IOException
+	 */
+	public static DetectionResult apply(int[] rgbPixels, int width,
+		int height, DetectorConfig config, CancellationToken token)
+		throws IOException {
+
+		return detect(rgbPixels, width, height, config, null, token);
+	}
+
+	/**
+	 * Applies the full multiresolution pipeline on raw pixels asynchronously.
+	 * Each subscriber starts its own detection on the executor and receives
+	 * the text areas of each level as soon as the level is done, then a
+	 * completion or error signal. The detection stops once the subscription
+	 * is cancelled.
+	 * @param rgbPixels The pixels of the image, packed as 0xRRGGBB integers,
+	 *                  row by row. They are converted before returning.
+	 * @param width The width of the image.
+	 * @param height The height of the image.
+	 * @param schedule The resolutions to work with.
+	 * @param executor The executor running the detections.
+	 * @return The publisher of the text areas of each level.
+	 */
+	public static Flow.Publisher<LevelResult> applyAsync(int[] rgbPixels,
+		int width, int height, PyramidSchedule schedule, Executor executor) {
+
+		return applyAsync(
+			rgbPixels, width, height,
+			DetectorConfig.DEFAULT.withSchedule(schedule), executor
+		);
+	}
+
+	/**
+	 * Applies the full multiresolution pipeline on raw pixels asynchronously
+	 * with the given configuration. See applyAsync(int[], int, int,
+	 * PyramidSchedule, Executor).
+	 * @param rgbPixels The pixels of the image, packed as 0xRRGGBB integers,
+	 *                  row by row. They are converted before returning.
+	 * @param width The width of the image.
+	 * @param height The height of the image.
+	 * @param config The configuration of the detection.
+	 * @param executor The executor running the detections.
+	 * @return The publisher of the text areas of each level.
+	 */
+	public static Flow.Publisher<LevelResult> applyAsync(int[] rgbPixels,
+		int width, int height, DetectorConfig config, Executor executor) {
+
+		return new DetectionPublisher(
+			new GrayImage(
+				rgbPixels, width, height,
+				GrayImage.DesaturationMethod.LUMINANCE
+			),
+			config, executor
+		);
+	}
+
+	/**
+	 * Applies the full multiresolution pipeline on a gray image until it ends
+	 * or the token is cancelled. Once cancelled, the remaining levels are
+	 * skipped and the text areas found so far are returned.
+	 * @param grayImg The image in which to locate text.
+	 * @param schedule The resolutions to work with.
+	 * @param token The token to stop the detection, e.g. after a deadline.
+	 * @return The text areas found, possibly partial.
+	 * @throws IOException
+	 */
+	static DetectionResult detect(GrayImage grayImg, PyramidSchedule schedule,
+		CancellationToken token) throws IOException {
+
+		return detect(grayImg, schedule, TextOrientation.HORIZONTAL, token);
+	}
+
+	/**
+	 * Applies the full multiresolution pipeline on a gray image, looking for
+	 * text in the given orientation, until it ends or the token is cancelled.
+	 * The edge map of each level is shared by both orientations.
+	 * @param grayImg The image in which to locate text.
+	 * @param schedule The resolutions to work with.
+	 * @param orientation The orientation of the text to look for.
+	 * @param token The token to stop the detection, e.g. after a deadline.
+	 * @return The text areas found, possibly partial.
+	 * @throws IOException
+	 */
+	static DetectionResult detect(GrayImage grayImg, PyramidSchedule schedule,
+		TextOrientation orientation, CancellationToken token)
+		throws IOException {
+
+		return detect(
+			grayImg,
+			DetectorConfig.DEFAULT.withSchedule(schedule)
+				.withOrientation(orientation),
+			null, token
+		);
+	}
+
+	/**
+	 * Applies the full multiresolution pipeline on a gray image with the given
+	 * configuration, notifying a listener of the text areas found at each
+	 * level. See detect(GrayImage, PyramidSchedule, TextOrientation,
+	 * CancellationToken).
+	 * @param grayImg The image in which to locate text.
+	 * @param config The configuration of the detection.
+	 * @param listener The listener to the levels, can be null.
+	 * @param token The token to stop the detection, e.g. after a deadline.
+	 * @return The text areas found, possibly partial.
+	 * @throws IOException
+	 */
+	static DetectionResult detect(GrayImage grayImg, DetectorConfig config,
+		LevelListener listener, CancellationToken token) throws IOException {
+
+		return detect(
+			grayImg, config, listener, getLevelExecutor(), token
+		);
+	}
+
+	/**
+	 * Applies the full multiresolution pipeline on a gray image with the given
+	 * configuration, the levels of a speculative schedule running on the
+	 * given executor. See detect(GrayImage, DetectorConfig, LevelListener,
+	 * CancellationToken).
+	 * @param grayImg The image in which to locate text.
+	 * @param config The configuration of the detection.
+	 * @param listener The listener to the levels, can be null.
+	 * @param levelExecutor The executor running the levels computed
+	 *                      speculatively, see
+	 *                      PyramidSchedule.withSpeculativeLevels.
+	 * @param token The token to stop the detection, e.g. after a deadline.
+	 * @return The text areas found, possibly partial.
+	 * @throws IOException
+	 */
+	static DetectionResult detect(GrayImage grayImg, DetectorConfig config,
+		LevelListener listener, Executor levelExecutor,
+		CancellationToken token) throws IOException {
+
+		ImageDebug.print(grayImg, "gray");
+
+		try {
+			// global thresholding
+			GrayImage edges =
+				EdgeMap.applyGlobalThresholding(grayImg, config, token);
+			return detect(
+				edges, new int[] {0, 0, edges.getWidth(), edges.getHeight()},
+				config, listener, levelExecutor, token
+			);
+		} catch (CancellationException e) {
+			return new DetectionResult(new Regions(), true);
+		}
+	}
+
+	/**
+	 * Applies the multiresolution pipeline on a global edge map, e.g. one
+	 * kept by a StageCache. See detect(GrayImage, DetectorConfig,
+	 * LevelListener, CancellationToken).
+	 * @param edges The edge map after global thresholding, only read.
+	 * @param config The configuration of the detection.
+	 * @param listener The listener to the levels, can be null.
+	 * @param token The token to stop the detection, e.g. after a deadline.
+	 * @return The text areas found, possibly partial.
+	 * @throws IOException
+	 */
+	static DetectionResult detectOnEdgeMap(GrayImage edges,
+		DetectorConfig config, LevelListener listener,
+		CancellationToken token) throws IOException {
+
+		return detectOnEdgeMap(
+			edges, new int[] {0, 0, edges.getWidth(), edges.getHeight()},
+			config, listener, token
+		);
+	}
+
+	/**
+	 * Applies the multiresolution pipeline on a global edge map, looking for
+	 * text inside an area of the map only. The levels are still built from
+	 * the whole map, see detect(GrayImage, Regions, DetectorConfig,
+	 * CancellationToken) for the pipeline limited to areas of interest.
+	 * @param edges The edge map after global thresholding, only read.
+	 * @param area The area where text is searched: {x, y, width, height}.
+	 * @param config The configuration of the detection.
+	 * @param listener The listener to the levels, can be null.
+	 * @param token The token to stop the detection, e.g. after a deadline.
+	 * @return The text areas found, possibly partial.
+	 * @throws IOException
+	 */
+	static DetectionResult detectOnEdgeMap(GrayImage edges, int[] area,
+		DetectorConfig config, LevelListener listener,
+		CancellationToken token) throws IOException {
+
+		try {
+			return detect(
+				edges, area, config, listener, getLevelExecutor(), token
+			);
+		} catch (CancellationException e) {
+			return new DetectionResult(new Regions(), true);
+		}
+	}
+
+	/**
+	 * Applies the full multiresolution pipeline on raw pixels with the given
+	 * configuration, notifying a listener of the text areas found at each
+	 * level. With chroma edges, the global edge map is computed from the
+	 * color pixels in a single pass, see EdgeMap.applyGlobalThresholding(
+	 * int[], int, int, DetectorConfig, CancellationToken).
+	 * @param rgbPixels The pixels of the image, packed as 0xRRGGBB integers,
+	 *                  row by row.
+	 * @param width The width of the image.
+	 * @param height The height of the image.
+	 * @param config The configuration of the detection.
+	 * @param listener The listener to the levels, can be null.
+	 * @param token The token to stop the detection, e.g. after a deadline.
+	 * @return The text areas found, possibly partial.
+	 * @throws IOException
+	 */
+	static DetectionResult detect(int[] rgbPixels, int width, int height,
+		DetectorConfig config, LevelListener listener,
+		CancellationToken token) throws IOException {
+
+		if (!config.hasChromaEdges()) {
+			return detect(
+				new GrayImage(
+					rgbPixels, width, height,
+					GrayImage.DesaturationMethod.LUMINANCE
+				),
+				config, listener, token
+			);
+		}
+
+		try {
+			// global thresholding of the luminance and the chroma
+			GrayImage edges = EdgeMap.applyGlobalThresholding(
+				rgbPixels, width, height, config, token
+			);
+			return detect(
+				edges, new int[] {0, 0, width, height}, config, listener,
+				getLevelExecutor(), token
+			);
+		} catch (CancellationException e) {
+			return new DetectionResult(new Regions(), true);
+		}
+	}
+
+	/**
+	 * Applies the full multiresolution pipeline inside areas of interest of a
+	 * gray image only. Overlapping areas are merged into their bounding box,
+	 * so text may be searched beyond the given areas. Each merged area is
+	 * processed along with the context read by the Sobel filters and by the
+	 * local thresholding windows of every level, each level being resized
+	 * and aligned on its kernel grid as for the whole image, so the cost is
+	 * proportional to the total size of the areas.
+	 * Without adaptive level skipping and text recovery, the text areas found
+	 * are the same as when processing the whole image while only looking for
+	 * text inside the merged areas, and so are the maps of each level inside
+	 * them. Otherwise, results may differ near the borders of the areas:
+	 * levels are skipped based on the context only, and text recovery may
+	 * propagate from outside of the context. Found text areas lie in the
+	 * merged areas, up to the scale down factor of their level.
+	 * Each context is copied before being processed, so the image may convert
+	 * its pixels lazily.
+	 * @param grayImg The image in which to locate text.
+	 * @param areasOfInterest The areas where text is searched.
+	 * @param schedule The resolutions to work with.
+	 * @param token The token to stop the detection, e.g. after a deadline.
+	 * @return The text areas found, in the coordinates of the image, possibly
+	 *         partial.
+	 * @throws IOException
+	 */
+	static DetectionResult detect(GrayImage grayImg, Regions areasOfInterest,
+		PyramidSchedule schedule, CancellationToken token)
+		throws IOException {
+
+		return detect(
+			grayImg, areasOfInterest,
+			DetectorConfig.DEFAULT.withSchedule(schedule), token
+		);
+	}
+
+	/**
+	 * Applies the full multiresolution pipeline with the given configuration
+	 * inside areas of interest of a gray image only. See detect(GrayImage,
+	 * Regions, PyramidSchedule, CancellationToken).
+	 * @param grayImg The image in which to locate text.
+	 * @param areasOfInterest The areas where text is searched.
+	 * @param config The configuration of the detection, without chroma
+	 *               edges.
+	 * @param token The token to stop the detection, e.g. after a deadline.
+	 * @return The text areas found, in the coordinates of the image, possibly
+	 *         partial.
+	 * @throws IOException
+	 * @throws IllegalArgumentException if the configuration has chroma edges,
+	 *         which a gray image does not have.
+	 */
+	static DetectionResult detect(GrayImage grayImg, Regions areasOfInterest,
+		DetectorConfig config, CancellationToken token) throws IOException {
+
+		if (config.hasChromaEdges()) {
+			throw new IllegalArgumentException(
+				"chroma edges need the color pixels of the image"
+			);
+		}
+
+		int width = grayImg.getWidth(), height = grayImg.getHeight();
+		Regions allTextAreas = new Regions();
+		boolean partial = false;
+
+		Regions areas =
+			mergeOverlappingAreas(areasOfInterest, 0, width, height);
+
+		for (int i = 0; i < areas.size(); ++i) {
+
+			if (token.isCancelled()) {
+				partial = true;
+				break;
+			}
+
+			int[] context = getContextArea(
+				areas, i, width, height, config.getSchedule()
+			);
+
+			// only copy the pixels read by the Sobel filters
+			int sourceX = Math.max(context[0] - 1, 0),
+				sourceY = Math.max(context[1] - 1, 0),
+				sourceMaxX = Math.min(context[0] + context[2] + 1, width),
+				sourceMaxY = Math.min(context[1] + context[3] + 1, height);
+			GrayImage sourceImg = grayImg.getSubimage(
+				sourceX, sourceY, sourceMaxX - sourceX, sourceMaxY - sourceY
+			).copy();
+			GrayImage contextImg = sourceImg.getSubimage(
+				context[0] - sourceX, context[1] - sourceY,
+				context[2], context[3]
+			);
+
+			DetectionResult areaRes = detectInArea(
+				contextImg, context, width, height, areas, i, config, token
+			);
+			allTextAreas.addAll(areaRes.getRegions());
+			partial |= areaRes.isPartial();
+		}
+
+		return new DetectionResult(allTextAreas, partial);
+	}
+
+	/**
+	 * Applies the full multiresolution pipeline on horizontal bands of a gray
+	 * image, one at a time, so that the intermediate maps only cover a band
+	 * and its context. See detect(GrayImage, Regions, DetectorConfig,
+	 * CancellationToken).
+	 * Bands overlap by getBandOverlap rows, and the text areas of a band are
+	 * kept if they start in the band, so text spanning two bands is found
+	 * whole as long as it is not taller than the overlap.
+	 * @param grayImg The image in which to locate text.
+	 * @param bandHeight The number of rows of each band, before the overlap.
+	 * @param config The configuration of the detection, without chroma
+	 *               edges.
+	 * @param token The token to stop the detection, e.g. after a deadline.
+	 * @return The text areas found, in the coordinates of the image, possibly
+	 *         partial.
+	 * @throws IOException
+	 * @throws IllegalArgumentException if the configuration has chroma edges,
+	 *         which a gray image does not have.
+	 */
+	static DetectionResult detectInBands(GrayImage grayImg, int bandHeight,
+		DetectorConfig config, CancellationToken token) throws IOException {
+
+		if (bandHeight < 1) {
+			throw new IllegalArgumentException(
+				"band height must be positive: " + bandHeight
+			);
+		}
+
+		int width = grayImg.getWidth(), height = grayImg.getHeight(),
+			overlap = getBandOverlap(config);
+		Regions allTextAreas = new Regions();
+		boolean partial = false;
+
+		for (int y = 0; y < height; y += bandHeight) {
+
+			if (token.isCancelled()) {
+				partial = true;
+				break;
+			}
+
+			int minY = Math.max(y - overlap, 0),
+				maxY = Math.min(y + bandHeight + overlap, height);
+			Regions band = new Regions(1);
+			band.add(0, minY, width, maxY - minY);
+
+			DetectionResult bandRes = detect(grayImg, band, config, token);
+			Regions textAreas = bandRes.getRegions();
+			for (int i = 0; i < textAreas.size(); ++i) {
+				if (textAreas.getY(i) >= y
+					&& textAreas.getY(i) < y + bandHeight) {
+
+					allTextAreas.add(textAreas, i);
+				}
+			}
+			partial |= bandRes.isPartial();
+		}
+
+		return new DetectionResult(allTextAreas, partial);
+	}
+
+	/**
+	 * Provides the number of rows by which the bands of detectInBands
+	 * overlap: the height of the tallest text the configuration looks for.
+	 * @param config The configuration of the detection.
+	 * @return The overlap of the bands.
+	 */
+	static int getBandOverlap(DetectorConfig config) {
+		return (int) Math.ceil(
+			config.getSchedule().getMaxScaleDownFactor()
+			* config.getMaxFontSize()
+		);
+	}
+
+	/**
+	 * Provides the number of rows read around an area of interest by detect,
+	 * on each side.
+	 * @param config The configuration of the detection.
+	 * @return The margin of the context of an area.
+	 */
+	static int getContextMargin(DetectorConfig config) {
+		// see getContextArea: the margin and alignment of getLevelWindow in
+		// the pixels of the level, one more for the rounding of the scaled
+		// area, plus the rounding of the source pixels
+		return (int) Math.ceil(
+			(EdgeMap.KERNEL_SIZE * (EdgeMap.WINDOW_SIZE_FACTOR / 2 + 1) + 1)
+			* config.getSchedule().getMaxScaleDownFactor()
+		) + 1;
+	}
+
+	/**
+	 * Applies the multiresolution pipeline on a gray image in two steps: the
+	 * image is first screened at a low resolution to find candidate text
+	 * areas, then only these areas are processed at full resolution.
+	 * See TextPositionDetector.applyCoarseToFine.
+	 * @param grayImg The image in which to locate text.
+	 * @param screeningScale The scale down factor of the screening image.
+	 * @return All found text areas.
+	 * @throws IOException
+	 */
+	static Regions detectCoarseToFine(GrayImage grayImg, int screeningScale)
+		throws IOException {
+
+		if (screeningScale < 1) {
+			throw new IllegalArgumentException(
+				"screening scale must be positive: " + screeningScale
+			);
+		}
+
+		DetectorConfig config = DetectorConfig.DEFAULT;
+		int width = grayImg.getWidth(), height = grayImg.getHeight(),
+			scaledWidth = width / screeningScale,
+			scaledHeight = height / screeningScale;
+		if (scaledWidth == 0 || scaledHeight == 0) {
+			return detect(
+				grayImg, config, null, CancellationToken.NONE
+			).getRegions();
+		}
+
+		// screening
+		GrayImage screeningImg =
+			grayImg.getScaledInstance(scaledWidth, scaledHeight);
+		ImageDebug.print(screeningImg, "screening");
+		Regions screenedTextAreas = detect(
+			EdgeMap.applyGlobalThresholding(screeningImg),
+			new int[] {0, 0, scaledWidth, scaledHeight}, config, null,
+			getLevelExecutor(), CancellationToken.NONE
+		).getRegions().scale(screeningScale);
+
+		// text too large to be found at full resolution is kept as is
+		Regions allTextAreas = new Regions(), smallTextAreas = new Regions();
+		for (int i = 0; i < screenedTextAreas.size(); ++i) {
+			if (screenedTextAreas.getHeight(i)
+				> config.getSchedule().getMaxScaleDownFactor()
+				* config.getMaxFontSize()) {
+
+				allTextAreas.add(screenedTextAreas, i);
+			} else {
+				smallTextAreas.add(screenedTextAreas, i);
+			}
+		}
+
+		Regions candidates = mergeOverlappingAreas(
+			smallTextAreas, screeningScale * EdgeMap.KERNEL_SIZE,
+			width, height
+		);
+
+		// refinement
+		for (int i = 0; i < candidates.size(); ++i) {
+
+			int[] context = getContextArea(
+				candidates, i, width, height, config.getSchedule()
+			);
+			GrayImage contextImg = grayImg.getSubimage(
+				context[0], context[1], context[2], context[3]
+			);
+
+			allTextAreas.addAll(detectInArea(
+				contextImg, context, width, height, candidates, i, config,
+				CancellationToken.NONE
+			).getRegions());
+		}
+
+		return allTextAreas;
+	}
+
+	// runs the pipeline on the context of an area of interest and provides the
+	// text areas in the coordinates of the image containing the context
+	private static DetectionResult detectInArea(GrayImage contextImg,
+		int[] context, int width, int height, Regions areas, int area,
+		DetectorConfig config, CancellationToken token) throws IOException {
+
+		int[] relativeArea = {
+			areas.getX(area) - context[0], areas.getY(area) - context[1],
+			areas.getWidth(area), areas.getHeight(area)
+		};
+
+		DetectionResult res;
+		try {
+			res = detect(
+				EdgeMap.applyGlobalThresholding(contextImg, config, token),
+				new int[] {context[0], context[1], width, height},
+				relativeArea, config, null, getLevelExecutor(), token
+			);
+		} catch (CancellationException e) {
+			return new DetectionResult(new Regions(), true);
+		}
+		Regions textAreas = res.getRegions();
+		textAreas.translate(context[0], context[1]);
+
+		return new DetectionResult(textAreas, res.isPartial());
+	}
+
+	// runs every resolution of the pipeline on a global edge map, looking for
+	// text inside the given area of the map only
+	private static DetectionResult detect(GrayImage edges, int[] area,
+		DetectorConfig config, LevelListener listener, Executor levelExecutor,
+		CancellationToken token) throws IOException {
+
+		return detect(
+			edges, new int[] {0, 0, edges.getWidth(), edges.getHeight()},
+			area, config, listener, levelExecutor, token
+		);
+	}
+
+	// the levels computed speculatively run on the common pool if it runs
+	// several threads, in the current thread otherwise
+	private static Executor getLevelExecutor() {
+		// without parallelism, CompletableFuture starts a thread per task
+		return ForkJoinPool.getCommonPoolParallelism() > 1
+			? ForkJoinPool.commonPool()
+			: Runnable::run;
+	}
+
+	// runs every resolution of the pipeline on a global edge map covering a
+	// part of a larger image, frame being the position of the map in the
+	// image and the size of the image, so that levels are resized as when
+	// processing the whole image, see getLevelWindow
+	// levels are built one at a time, and only if they are not skipped
+	private static DetectionResult detect(GrayImage edges, int[] frame,
+		int[] area, DetectorConfig config, LevelListener listener,
+		Executor levelExecutor, CancellationToken token) throws IOException {
+
+		PyramidSchedule schedule = config.getSchedule();
+		if (schedule.isSpeculative()) {
+			return detectSpeculatively(
+				edges, frame, area, config, listener, levelExecutor, token
+			);
+		}
+
+		RegionIndex allTextAreas =
+			new RegionIndex(edges.getWidth(), edges.getHeight());
+		boolean partial = false;
+
+		for (int i = schedule.getMinLevel(); i <= schedule.getMaxLevel();
+			++i) {
+
+			float scaleDownFactor = schedule.getScaleDownFactor(i);
+			if ((int) (frame[2] / scaleDownFactor) == 0
+				|| (int) (frame[3] / scaleDownFactor) == 0) {
+
+				break;
+			}
+
+			try {
+				token.check();
+				Regions levelTextAreas = detectLevel(
+					edges, frame, area, allTextAreas, i, scaleDownFactor,
+					config, token
+				);
+				allTextAreas.addAll(levelTextAreas);
+				// region detection stops early once cancelled
+				token.check();
+				if (listener != null) {
+					listener.levelDone(i, scaleDownFactor, levelTextAreas);
+				}
+			} catch (CancellationException e) {
+				partial = true;
+				break;
+			}
+		}
+
+		// text areas scaled up from a lower resolution are only precise up
+		// to the scale factor
+		allTextAreas.mergeNearDuplicates(
+			(int) Math.ceil(schedule.getMaxScaleDownFactor())
+		);
+
+		return new DetectionResult(allTextAreas.getRegions(), partial);
+	}
+
+	// runs every resolution of the pipeline concurrently, then resolves the
+	// levels in order, see PyramidSchedule.withSpeculativeLevels
+	private static DetectionResult detectSpeculatively(GrayImage edges,
+		int[] frame, int[] area, DetectorConfig config,
+		LevelListener listener, Executor levelExecutor,
+		CancellationToken token) throws IOException {
+
+		PyramidSchedule schedule = config.getSchedule();
+		int minLevel = schedule.getMinLevel(), levelCount = 0;
+		while (minLevel + levelCount <= schedule.getMaxLevel()) {
+			float scaleDownFactor =
+				schedule.getScaleDownFactor(minLevel + levelCount);
+			if ((int) (frame[2] / scaleDownFactor) == 0
+				|| (int) (frame[3] / scaleDownFactor) == 0) {
+
+				break;
+			}
+			++levelCount;
+		}
+
+		List<CompletableFuture<Regions>> levels =
+			new ArrayList<>(Collections.nCopies(levelCount, null));
+		CancellationToken speculation = startLevels(
+			levels, 0, edges, frame, area, config, levelExecutor, token
+		);
+
+		RegionIndex allTextAreas =
+			new RegionIndex(edges.getWidth(), edges.getHeight());
+		boolean partial = false;
+
+		try {
+			for (int k = 0; k < levelCount; ++k) {
+
+				int level = minLevel + k;
+				float scaleDownFactor = schedule.getScaleDownFactor(level);
+
+				try {
+					Regions levelTextAreas = join(levels.get(k));
+					allTextAreas.addAll(levelTextAreas);
+					// region detection stops early once cancelled
+					token.check();
+					if (listener != null) {
+						listener.levelDone(
+							level, scaleDownFactor, levelTextAreas
+						);
+					}
+					// the next levels did not hide this text, so they are
+					// started again on the edge map where it is hidden
+					if (levelTextAreas.size() > 0 && k + 1 < levelCount) {
+						speculation.cancel();
+						speculation = startLevels(
+							levels, k + 1,
+							hideFoundTextAreas(edges, allTextAreas), frame,
+							area, config, levelExecutor, token
+						);
+					}
+				} catch (CancellationException e) {
+					partial = true;
+					break;
+				}
+			}
+		} finally {
+			// the levels still running are not needed anymore
+			speculation.cancel();
+			for (CompletableFuture<Regions> level : levels) {
+				level.cancel(false);
+			}
+		}
+
+		allTextAreas.mergeNearDuplicates(
+			(int) Math.ceil(schedule.getMaxScaleDownFactor())
+		);
+
+		return new DetectionResult(allTextAreas.getRegions(), partial);
+	}
+
+	// starts computing the levels from the given index on an edge map where
+	// the text found so far is already hidden, and replaces their previous
+	// computations, provides the token stopping the started levels only
+	private static CancellationToken startLevels(
+		List<CompletableFuture<Regions>> levels, int from, GrayImage edges,
+		int[] frame, int[] area, DetectorConfig config, Executor executor,
+		CancellationToken token) {
+
+		PyramidSchedule schedule = config.getSchedule();
+		CancellationToken speculation = token.createChild();
+
+		for (int k = from; k < levels.size(); ++k) {
+			if (levels.get(k) != null) {
+				levels.get(k).cancel(false);
+			}
+			int level = schedule.getMinLevel() + k;
+			levels.set(k, CompletableFuture.supplyAsync(() -> {
+				try {
+					return detectLevel(
+						edges, frame, area,
+						new RegionIndex(edges.getWidth(), edges.getHeight()),
+						level, schedule.getScaleDownFactor(level), config,
+						speculation
+					);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}, executor));
+		}
+
+		return speculation;
+	}
+
+	// waits for a level computed concurrently, rethrowing its exception
+	private static Regions join(CompletableFuture<Regions> level)
+		throws IOException {
+
+		try {
+			return level.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof UncheckedIOException) {
+				throw ((UncheckedIOException) e.getCause()).getCause();
+			} else if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	// runs one resolution of the pipeline, see detect
+	private static Regions detectLevel(GrayImage edges, int[] frame,
+		int[] area, RegionIndex foundTextAreas, int level,
+		float scaleDownFactor, DetectorConfig config, CancellationToken token)
+		throws IOException {
+
+		// resize edge map
+		GrayImage initialEdgeMap = hideFoundTextAreas(edges, foundTextAreas);
+		if (config.getSchedule().isAdaptive() && !mayContainText(
+			initialEdgeMap, scaleDownFactor, config)) {
+
+			return new Regions();
+		}
+		int scaledWidth = (int) (frame[2] / scaleDownFactor),
+			scaledHeight = (int) (frame[3] / scaleDownFactor);
+		int[] frameArea = scaleDownArea(
+			new int[] {
+				area[0] + frame[0], area[1] + frame[1], area[2], area[3]
+			},
+			scaleDownFactor, scaledWidth, scaledHeight
+		);
+		int[] window = edges.getWidth() == frame[2]
+			&& edges.getHeight() == frame[3]
+				? new int[] {0, 0, scaledWidth, scaledHeight}
+				: getLevelWindow(frameArea, scaledWidth, scaledHeight);
+		GrayImage newEdges = initialEdgeMap.getScaledArea(
+			frame, scaledWidth, scaledHeight, window
+		);
+		ImageDebug.print(newEdges, String.format("edges_A_%02d", level));
+
+		// local thresholding, in the same pass as the text labeling sums and
+		// the projections of the area
+		int[] scaledArea = {
+			frameArea[0] - window[0], frameArea[1] - window[1], frameArea[2],
+			frameArea[3]
+		};
+		LevelEdgeMap levelEdgeMap = new LevelEdgeMap(
+			newEdges, scaledArea[0], scaledArea[1], scaledArea[2],
+			scaledArea[3], config, token
+		);
+		newEdges = levelEdgeMap.getPostLocalThresholdMap();
+		ImageDebug.print(newEdges, String.format("edges_B_%02d", level));
+
+		// text recovery, left out of region detection unless configured
+		int[] rowProjection = null, columnProjection = null;
+		if (config.hasTextRecovery()) {
+			newEdges = levelEdgeMap.getTextRecoveryMap(token);
+			ImageDebug.print(newEdges, String.format("edges_C_%02d", level));
+		} else {
+			rowProjection = levelEdgeMap.getRowProjection();
+			columnProjection = levelEdgeMap.getColumnProjection();
+		}
+
+		// region detection
+		Regions textAreas = getRegions(
+			newEdges.getSubimage(
+				scaledArea[0], scaledArea[1], scaledArea[2], scaledArea[3]
+			),
+			rowProjection, columnProjection, config, token
+		);
+		textAreas.translate(scaledArea[0], scaledArea[1]);
+
+		ImageDebug.print(newEdges, textAreas,
+			String.format("areas_%02d", level));
+
+		// resize the text areas to match the resolution of the original image
+		textAreas.translate(window[0], window[1]);
+		return toEdgeMapCoordinates(textAreas, frame, scaleDownFactor);
+	}
+
+	// scales text areas found in a level up to the original image, then
+	// moves them to the coordinates of the edge map covering a part of it
+	private static Regions toEdgeMapCoordinates(Regions scaledTextAreas,
+		int[] frame, float scaleDownFactor) {
+
+		Regions res = scaledTextAreas.scale(scaleDownFactor);
+		res.translate(-frame[0], -frame[1]);
+		return res;
+	}
+
+	// runs region detection in the given orientations on the same edge map,
+	// the vertical one working on a transposed copy so that projections
+	// still read rows
+	private static Regions getRegions(GrayImage edgeMap, int[] rowSums,
+		int[] columnSums, DetectorConfig config, CancellationToken token) {
+
+		switch (config.getOrientation()) {
+		case HORIZONTAL:
+			return UniresolutionTextPositionDetector.getRegions(
+				edgeMap, rowSums, columnSums, config, token
+			);
+		case VERTICAL:
+			return getVerticalRegions(
+				edgeMap, rowSums, columnSums, config, token
+			);
+		default:
+			CompletableFuture<Regions> verticalTextAreas =
+				CompletableFuture.supplyAsync(() -> getVerticalRegions(
+					edgeMap, rowSums, columnSums, config, token
+				));
+			Regions horizontalTextAreas =
+				UniresolutionTextPositionDetector.getRegions(
+					edgeMap, rowSums, columnSums, config, token
+				);
+			return reconcileOrientations(
+				horizontalTextAreas, verticalTextAreas.join()
+			);
+		}
+	}
+
+	private static Regions getVerticalRegions(GrayImage edgeMap,
+		int[] rowSums, int[] columnSums, DetectorConfig config,
+		CancellationToken token) {
+
+		// rows and columns are swapped by the transposition
+		Regions res = UniresolutionTextPositionDetector.getRegions(
+			edgeMap.transpose(), columnSums, rowSums, config, token
+		);
+		res.transpose();
+		return res;
+	}
+
+	// among overlapping text areas of different orientations, keeps the
+	// largest one: text is usually split into single characters when looked
+	// for in the wrong orientation
+	private static Regions reconcileOrientations(Regions horizontal,
+		Regions vertical) {
+
+		boolean[] hDropped = new boolean[horizontal.size()],
+			vDropped = new boolean[vertical.size()];
+
+		for (int h = 0; h < horizontal.size(); ++h) {
+			long hArea =
+				(long) horizontal.getWidth(h) * horizontal.getHeight(h);
+			for (int v = 0; v < vertical.size() && !hDropped[h]; ++v) {
+				if (vDropped[v] || !horizontal.intersects(h,
+					vertical.getX(v), vertical.getY(v),
+					vertical.getWidth(v), vertical.getHeight(v))) {
+
+					continue;
+				}
+				if ((long) vertical.getWidth(v) * vertical.getHeight(v)
+					> hArea) {
+
+					hDropped[h] = true;
+				} else {
+					vDropped[v] = true;
+				}
+			}
+		}
+
+		Regions res = new Regions(horizontal.size() + vertical.size());
+		for (int h = 0; h < horizontal.size(); ++h) {
+			if (!hDropped[h]) res.add(horizontal, h);
+		}
+		for (int v = 0; v < vertical.size(); ++v) {
+			if (!vDropped[v]) res.add(vertical, v);
+		}
+
+		return res;
+	}
+
+	// tells whether a level may contain text in one of the orientations, see
+	// UniresolutionTextPositionDetector.mayContainText
+	private static boolean mayContainText(GrayImage edgeMap,
+		float scaleDownFactor, DetectorConfig config) {
+
+		TextOrientation orientation = config.getOrientation();
+		return (orientation != TextOrientation.VERTICAL
+				&& UniresolutionTextPositionDetector.mayContainText(
+					getRowSums(edgeMap, true, config), scaleDownFactor, config))
+			|| (orientation != TextOrientation.HORIZONTAL
+				&& UniresolutionTextPositionDetector.mayContainText(
+					getRowSums(edgeMap, false, config), scaleDownFactor,
+					config));
+	}
+
+	// dilates areas and merges the overlapping ones, so that each part of the
+	// image is processed at most once
+	static Regions mergeOverlappingAreas(Regions areas, int margin,
+		int width, int height) {
+
+		Regions res = new Regions();
+
+		for (int i = 0; i < areas.size(); ++i) {
+
+			int minX = Math.max(areas.getX(i) - margin, 0),
+				minY = Math.max(areas.getY(i) - margin, 0),
+				maxX = Math.min(areas.getMaxX(i) + margin, width),
+				maxY = Math.min(areas.getMaxY(i) + margin, height);
+			if (minX >= maxX || minY >= maxY) continue;
+
+			// absorb every area overlapping the new one
+			boolean progresses;
+			do {
+				progresses = false;
+				for (int j = 0; j < res.size(); ++j) {
+					if (res.intersects(j, minX, minY, maxX - minX,
+						maxY - minY)) {
+
+						minX = Math.min(minX, res.getX(j));
+						minY = Math.min(minY, res.getY(j));
+						maxX = Math.max(maxX, res.getMaxX(j));
+						maxY = Math.max(maxY, res.getMaxY(j));
+						res.remove(j--);
+						progresses = true;
+					}
+				}
+			} while (progresses);
+
+			res.add(minX, minY, maxX - minX, maxY - minY);
+		}
+
+		return res;
+	}
+
+	// extends an area of interest with the pixels read by every level, see
+	// getLevelWindow
+	static int[] getContextArea(Regions areas, int area, int width,
+		int height, PyramidSchedule schedule) {
+
+		int minX = areas.getX(area), minY = areas.getY(area),
+			maxX = areas.getMaxX(area), maxY = areas.getMaxY(area);
+
+		for (int l = schedule.getMinLevel(); l <= schedule.getMaxLevel();
+			++l) {
+
+			float f = schedule.getScaleDownFactor(l);
+			int scaledWidth = (int) (width / f),
+				scaledHeight = (int) (height / f);
+			if (scaledWidth == 0 || scaledHeight == 0) break;
+
+			int[] window = getLevelWindow(
+				scaleDownArea(
+					new int[] {
+						areas.getX(area), areas.getY(area),
+						areas.getWidth(area), areas.getHeight(area)
+					},
+					f, scaledWidth, scaledHeight
+				),
+				scaledWidth, scaledHeight
+			);
+			// a resized pixel covers width / scaledWidth pixels, see
+			// GrayImage.getScaledInstance
+			minX = Math.min(minX,
+				(int) ((long) window[0] * width / scaledWidth));
+			minY = Math.min(minY,
+				(int) ((long) window[1] * height / scaledHeight));
+			maxX = Math.max(maxX, (int) (
+				((long) (window[0] + window[2]) * width + scaledWidth - 1)
+				/ scaledWidth
+			));
+			maxY = Math.max(maxY, (int) (
+				((long) (window[1] + window[3]) * height + scaledHeight - 1)
+				/ scaledHeight
+			));
+		}
+
+		return new int[] {minX, minY, maxX - minX, maxY - minY};
+	}
+
+	// provides the part of a level read by the local thresholding windows of
+	// the kernels covering an area, aligned on the kernel grid of the whole
+	// level so that kernels and windows are the same as on the whole level
+	static int[] getLevelWindow(int[] scaledArea, int scaledWidth,
+		int scaledHeight) {
+
+		int grid = EdgeMap.KERNEL_SIZE,
+			margin = EdgeMap.KERNEL_SIZE * (EdgeMap.WINDOW_SIZE_FACTOR / 2);
+
+		int minX = Math.max(scaledArea[0] - margin, 0) / grid * grid,
+			minY = Math.max(scaledArea[1] - margin, 0) / grid * grid,
+			maxX = Math.min(
+				(scaledArea[0] + scaledArea[2] + margin + grid - 1)
+					/ grid * grid,
+				scaledWidth
+			),
+			maxY = Math.min(
+				(scaledArea[1] + scaledArea[3] + margin + grid - 1)
+					/ grid * grid,
+				scaledHeight
+			);
+
+		return new int[] {minX, minY, maxX - minX, maxY - minY};
+	}
+
+	// provides the part of a scaled down image covering an area
+	static int[] scaleDownArea(int[] area, float scaleDownFactor,
+		int scaledWidth, int scaledHeight) {
+
+		double f = scaleDownFactor;
+		int minX = Math.max((int) (area[0] / f), 0),
+			minY = Math.max((int) (area[1] / f), 0),
+			maxX = Math.min((int) Math.ceil((area[0] + area[2]) / f),
+				scaledWidth),
+			maxY = Math.min((int) Math.ceil((area[1] + area[3]) / f),
+				scaledHeight);
+
+		return new int[] {
+			minX, minY, Math.max(maxX - minX, 0), Math.max(maxY - minY, 0)
+		};
+	}
+
+	// removes (supposed) text from a copy of the edge map to avoid detecting
+	// it again at lower resolutions, the edge map being only read afterwards
+	private static GrayImage hideFoundTextAreas(GrayImage edgeMap,
+		RegionIndex textAreas) {
+
+		if (textAreas.size() == 0) {
+			return edgeMap;
+		}
+		GrayImage res = edgeMap.copy();
+		textAreas.mask(res);
+		return res;
+	}
+
+	// projects each row, or each column, of an edge map
+	private static int[] getRowSums(GrayImage edgeMap, boolean rows,
+		DetectorConfig config) {
+
+		int[] res = new int[rows ? edgeMap.getHeight() : edgeMap.getWidth()];
+
+		for (int j = 0; j < edgeMap.getHeight(); ++j) {
+			for (int i = 0; i < edgeMap.getWidth(); ++i) {
+				res[rows ? j : i] +=
+					config.getProjectionValue(edgeMap.getValue(i, j));
+			}
+		}
+
+		return res;
+	}
+
+}
@@ -0,0 +1,151 @@
+package textlocator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Gray image whose pixels are stored outside of the Java heap, either in
+ * native memory or in a memory-mapped file.
+ * Pixels are laid out row by row as 32-bit integers in the native byte order,
+ * so the buffer can be shared with native code without any conversion.
+ * Images created from this one by the pipeline stages are stored off-heap
+ * too.
+ * @author MX-Futhark
+ */
+class OffHeapGrayImage extends GrayImage {
+
+	private static final int BYTES_PER_PIXEL = 4;
+
+	private final ByteBuffer buffer;
+	private final IntBuffer pixels;
+	private final int width;
+	private final int height;
+
+	private OffHeapGrayImage(ByteBuffer buffer, int width, int height) {
+		this.buffer = buffer.order(ByteOrder.nativeOrder());
+		this.pixels = this.buffer.asIntBuffer();
+		this.width = width;
+		this.height = height;
+	}
+
+	/**
+	 * Allocates a black image in native memory. The memory is released once
+	 * the image is no longer reachable.
+	 * @param width The width of the image.
+	 * @param height The height of the image.
+	 * @return The new image.
+	 */
+	public static OffHeapGrayImage allocate(int width, int height) {
+		return new OffHeapGrayImage(
+			ByteBuffer.allocateDirect(getByteSize(width, height)),
+			width, height
+		);
+	}
+
+	/**
+	 * Maps an image stored in a file. A writable mapping creates the file or
+	 * extends it if it is too small, and changes to the pixels are written
+	 * back to the file.
+	 * @param file The file holding the pixels.
+	 * @param width The width of the image.
+	 * @param height The height of the image.
+	 * @param writable True to map the file in read/write mode.
+	 * @return The mapped image.
+	 * @throws IOException
+	 */
+	public static OffHeapGrayImage map(Path file, int width, int height,
+		boolean writable) throws IOException {
+
+		try (FileChannel channel = writable
+			? FileChannel.open(file, StandardOpenOption.READ,
+				StandardOpenOption.WRITE, StandardOpenOption.CREATE)
+			: FileChannel.open(file, StandardOpenOption.READ)) {
+
+			MappedByteBuffer buffer = channel.map(
+				writable
+					? FileChannel.MapMode.READ_WRITE
+					: FileChannel.MapMode.READ_ONLY,
+				0, getByteSize(width, height)
+			);
+			return new OffHeapGrayImage(buffer, width, height);
+		}
+	}
+
+	/**
+	 * Copies an image into native memory.
+	 * @param img The image to copy.
+	 * @return The off-heap copy of the image.
+	 */
+	public static OffHeapGrayImage copyOf(GrayImage img) {
+
+		OffHeapGrayImage res = allocate(img.getWidth(), img.getHeight());
+
+		for (int j = 0; j < img.getHeight(); ++j) {
+			for (int i = 0; i < img.getWidth(); ++i) {
+				res.setValue(i, j, img.getValue(i, j));
+			}
+		}
+
+		return res;
+	}
+
+	private static int getByteSize(int width, int height) {
+		long size = (long) width * height * BYTES_PER_PIXEL;
+		if (size > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException(
+				"image too large: " + width + "x" + height
+			);
+		}
+		return (int) size;
+	}
+
+	/**
+	 * Provides the underlying buffer, e.g. to hand it over to native code.
+	 * @return The buffer holding the pixels.
+	 */
+	public ByteBuffer getBuffer() {
+		return buffer.duplicate().order(ByteOrder.nativeOrder());
+	}
+
+	/**
+	 * Writes the pixels of a mapped image back to its file. Does nothing for
+	 * images allocated in native memory.
+	 */
+	public void force() {
+		if (buffer instanceof MappedByteBuffer) {
+			((MappedByteBuffer) buffer).force();
+		}
+	}
+
+	@Override
+	public int getHeight() {
+		return height;
+	}
+
+	@Override
+	public int getWidth() {
+		return width;
+	}
+
+	@Override
+	public int getValue(int x, int y) {
+		return pixels.get(y * width + x);
+	}
+
+	@Override
+	public void setValue(int x, int y, int value) {
+		pixels.put(y * width + x, value);
+	}
+
+	@Override
+	public GrayImage createCompatibleImage(int width, int height) {
+		return allocate(width, height);
+	}
+
+}
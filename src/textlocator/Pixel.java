@@ -1,25 +1,44 @@
 package textlocator;
 
-import java.awt.Point;
-
 /**
  * Comparable pixel.
  * @author MX-Futhark
  */
-@SuppressWarnings("serial")
-class Pixel extends Point implements Comparable<Point> {
+class Pixel implements Comparable<Pixel> {
+
+	private final int x;
+	private final int y;
 
 	public Pixel(int x, int y) {
-		super(x, y);
+		this.x = x;
+		this.y = y;
+	}
+
+	public int getX() {
+		return x;
+	}
+
+	public int getY() {
+		return y;
 	}
 
 	@Override
-	public int compareTo(Point o) {
-		int res = Integer.compare((int) this.getX(), (int) o.getX());
+	public int compareTo(Pixel o) {
+		int res = Integer.compare(this.x, o.x);
 		if (res == 0) {
-			res = Integer.compare((int) this.getY(), (int) o.getY());
+			res = Integer.compare(this.y, o.y);
 		}
 		return res;
 	}
 
+	@Override
+	public boolean equals(Object o) {
+		return o instanceof Pixel && compareTo((Pixel) o) == 0;
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * x + y;
+	}
+
 }
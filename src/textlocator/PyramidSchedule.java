@@ -0,0 +1,220 @@
+package textlocator;
+
+import java.util.Arrays;
+
+/**
+ * Describes the resolutions the multiresolution pipeline works with, see
+ * section IV.A. Level l of the pyramid is the edge map scaled down by the
+ * factor f(l), which does not need to be an integer. Instances are immutable.
+ * @author MX-Futhark
+ */
+public final class PyramidSchedule {
+
+	/**
+	 * The schedule of the original method: f(l) = l for the levels 1 to
+	 * TextPositionDetector.ITERATIONS_NUMBER.
+	 */
+	public static final PyramidSchedule DEFAULT =
+		linear(1, TextPositionDetector.ITERATIONS_NUMBER);
+
+	private enum Kind {
+		LINEAR, GEOMETRIC, EXPLICIT
+	}
+
+	private final Kind kind;
+	private final float ratio;
+	private final float[] factors;
+	private final int minLevel;
+	private final int maxLevel;
+	private final boolean adaptive;
+	private final boolean speculative;
+
+	private PyramidSchedule(Kind kind, float ratio, float[] factors,
+		int minLevel, int maxLevel, boolean adaptive, boolean speculative) {
+
+		if (minLevel < 1 || maxLevel < minLevel) {
+			throw new IllegalArgumentException(
+				"invalid level range: " + minLevel + ".." + maxLevel
+			);
+		}
+		this.kind = kind;
+		this.ratio = ratio;
+		this.factors = factors;
+		this.minLevel = minLevel;
+		this.maxLevel = maxLevel;
+		this.adaptive = adaptive;
+		this.speculative = speculative;
+	}
+
+	/**
+	 * Schedule following f(l) = l.
+	 * @param minLevel The first level, starting from 1.
+	 * @param maxLevel The last level (inclusive).
+	 * @return The schedule.
+	 */
+	public static PyramidSchedule linear(int minLevel, int maxLevel) {
+		return new PyramidSchedule(
+			Kind.LINEAR, 1f, null, minLevel, maxLevel, false, false
+		);
+	}
+
+	/**
+	 * Schedule following f(l) = ratio^(l-1).
+	 * @param ratio The factor between two consecutive levels, greater than 1.
+	 * @param minLevel The first level, starting from 1.
+	 * @param maxLevel The last level (inclusive).
+	 * @return The schedule.
+	 */
+	public static PyramidSchedule geometric(float ratio, int minLevel,
+		int maxLevel) {
+
+		if (!(ratio > 1f)) {
+			throw new IllegalArgumentException("invalid ratio: " + ratio);
+		}
+		return new PyramidSchedule(
+			Kind.GEOMETRIC, ratio, null, minLevel, maxLevel, false, false
+		);
+	}
+
+	/**
+	 * Schedule using the given factors, f(l) being the l-th factor.
+	 * @param factors The scale down factors of each level, at least 1.
+	 * @return The schedule.
+	 */
+	public static PyramidSchedule of(float... factors) {
+
+		for (float factor : factors) {
+			if (!(factor >= 1f)) {
+				throw new IllegalArgumentException(
+					"invalid scale down factor: " + factor
+				);
+			}
+		}
+		return new PyramidSchedule(
+			Kind.EXPLICIT, 1f, Arrays.copyOf(factors, factors.length),
+			1, factors.length, false, false
+		);
+	}
+
+	/**
+	 * Provides a copy of this schedule restricted to a range of levels.
+	 * @param minLevel The first level, starting from 1.
+	 * @param maxLevel The last level (inclusive).
+	 * @return The restricted schedule.
+	 */
+	public PyramidSchedule withLevels(int minLevel, int maxLevel) {
+		if (kind == Kind.EXPLICIT && maxLevel > factors.length) {
+			throw new IllegalArgumentException(
+				"no factor for level " + maxLevel
+			);
+		}
+		return new PyramidSchedule(
+			kind, ratio, factors, minLevel, maxLevel, adaptive, speculative
+		);
+	}
+
+	/**
+	 * Provides a copy of this schedule with adaptive level selection turned
+	 * on or off. When on, a level is skipped when the edges left after
+	 * hiding the text found at the previous levels cannot form a text area
+	 * at that level's resolution.
+	 * @param adaptive True to skip levels that cannot contain text.
+	 * @return The modified schedule.
+	 */
+	public PyramidSchedule withAdaptiveSkipping(boolean adaptive) {
+		return new PyramidSchedule(
+			kind, ratio, factors, minLevel, maxLevel, adaptive, speculative
+		);
+	}
+
+	/**
+	 * Provides a copy of this schedule with speculative level evaluation
+	 * turned on or off. When on, all the levels are computed concurrently,
+	 * assuming that the previous levels find no text, and are then resolved
+	 * in order. Once a level finds text, the next levels are computed again
+	 * concurrently on the edge map where that text is hidden, the previous
+	 * computations being stopped. The results are the same as those of the
+	 * sequential evaluation, and the latency is close to the one of the
+	 * slowest level when text is found at few levels.
+	 * @param speculative True to compute all the levels concurrently.
+	 * @return The modified schedule.
+	 */
+	public PyramidSchedule withSpeculativeLevels(boolean speculative) {
+		return new PyramidSchedule(
+			kind, ratio, factors, minLevel, maxLevel, adaptive, speculative
+		);
+	}
+
+	/**
+	 * Getter on the first level of the schedule.
+	 * @return The first level of the schedule.
+	 */
+	public int getMinLevel() {
+		return minLevel;
+	}
+
+	/**
+	 * Getter on the last level of the schedule.
+	 * @return The last level of the schedule.
+	 */
+	public int getMaxLevel() {
+		return maxLevel;
+	}
+
+	/**
+	 * Tells whether levels that cannot contain text are skipped.
+	 * @return True if adaptive level selection is on.
+	 */
+	public boolean isAdaptive() {
+		return adaptive;
+	}
+
+	/**
+	 * Tells whether the levels are computed concurrently.
+	 * @return True if speculative level evaluation is on.
+	 */
+	public boolean isSpeculative() {
+		return speculative;
+	}
+
+	/**
+	 * Provides the scale down factor of a level.
+	 * @param level The level, starting from 1.
+	 * @return The scale down factor f(level).
+	 */
+	public float getScaleDownFactor(int level) {
+		switch (kind) {
+		case LINEAR:
+			return level;
+		case GEOMETRIC:
+			return (float) Math.pow(ratio, level - 1);
+		case EXPLICIT:
+			return factors[level - 1];
+		}
+		return 1f;
+	}
+
+	/**
+	 * Provides the largest scale down factor of the schedule.
+	 * @return The largest scale down factor.
+	 */
+	public float getMaxScaleDownFactor() {
+		float res = 1f;
+		for (int l = minLevel; l <= maxLevel; ++l) {
+			res = Math.max(res, getScaleDownFactor(l));
+		}
+		return res;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("PyramidSchedule[");
+		for (int l = minLevel; l <= maxLevel; ++l) {
+			sb.append(l > minLevel ? ", " : "")
+				.append(getScaleDownFactor(l));
+		}
+		return sb.append(adaptive ? ", adaptive" : "")
+			.append(speculative ? ", speculative]" : "]").toString();
+	}
+
+}
@@ -0,0 +1,334 @@
+package textlocator;
+
+import java.util.Arrays;
+
+/**
+ * Uniform grid index over the text areas found in an image, so that masking
+ * an edge map, looking for overlapping or containing areas and merging
+ * near-duplicates only visit the areas around the pixels concerned.
+ * Each cell of the grid lists the areas intersecting it. Areas going over
+ * the edges of the image are listed in the closest cells.
+ * @author MX-Futhark
+ */
+class RegionIndex {
+
+	private static final int CELL_SIZE = 64;
+
+	// kinds of queries, NEARBY selecting every area listed in the cells
+	// covered by the rectangle
+	private enum Query {
+		OVERLAPPING, CONTAINING, NEARBY
+	}
+
+	private final int columns, rows;
+	private final Regions regions = new Regions();
+	private boolean[] removed = new boolean[8];
+	private int removedCount = 0;
+
+	// indices of the areas intersecting each cell, cellSizes[c] being used
+	private final int[][] cells;
+	private final int[] cellSizes;
+
+	// avoids visiting an area twice during a query
+	private int[] visitStamps = new int[8];
+	private int visitStamp = 0;
+
+	/**
+	 * Constructor for an empty index.
+	 * @param width The width of the image the areas belong to.
+	 * @param height The height of the image the areas belong to.
+	 */
+	public RegionIndex(int width, int height) {
+		this.columns = Math.max((width + CELL_SIZE - 1) / CELL_SIZE, 1);
+		this.rows = Math.max((height + CELL_SIZE - 1) / CELL_SIZE, 1);
+		this.cells = new int[columns * rows][];
+		this.cellSizes = new int[columns * rows];
+	}
+
+	/**
+	 * Getter on the number of areas in the index.
+	 * @return The number of areas in the index.
+	 */
+	public int size() {
+		return regions.size() - removedCount;
+	}
+
+	/**
+	 * Adds an area to the index.
+	 * @param x The X coordinate of the area.
+	 * @param y The Y coordinate of the area.
+	 * @param width The width of the area.
+	 * @param height The height of the area.
+	 */
+	public void add(int x, int y, int width, int height) {
+
+		int i = regions.size();
+		regions.add(x, y, width, height);
+		if (i >= removed.length) {
+			removed = Arrays.copyOf(removed, 2 * removed.length);
+			visitStamps = Arrays.copyOf(visitStamps, 2 * visitStamps.length);
+		}
+
+		addToCells(i, x, y, width, height);
+	}
+
+	/**
+	 * Adds areas to the index.
+	 * @param areas The areas to add.
+	 */
+	public void addAll(Regions areas) {
+		for (int i = 0; i < areas.size(); ++i) {
+			add(areas.getX(i), areas.getY(i), areas.getWidth(i),
+				areas.getHeight(i));
+		}
+	}
+
+	/**
+	 * Provides the areas of the index, in the order they were added.
+	 * @return A copy of the areas.
+	 */
+	public Regions getRegions() {
+		Regions res = new Regions(size());
+		for (int i = 0; i < regions.size(); ++i) {
+			if (!removed[i]) res.add(regions, i);
+		}
+		return res;
+	}
+
+	/**
+	 * Provides the areas having at least one pixel in common with a
+	 * rectangle.
+	 * @param x The X coordinate of the rectangle.
+	 * @param y The Y coordinate of the rectangle.
+	 * @param width The width of the rectangle.
+	 * @param height The height of the rectangle.
+	 * @return The overlapping areas, in the order they were added.
+	 */
+	public Regions getOverlapping(int x, int y, int width, int height) {
+		return query(x, y, width, height, Query.OVERLAPPING);
+	}
+
+	/**
+	 * Provides the areas containing a rectangle.
+	 * @param x The X coordinate of the rectangle.
+	 * @param y The Y coordinate of the rectangle.
+	 * @param width The width of the rectangle.
+	 * @param height The height of the rectangle.
+	 * @return The containing areas, in the order they were added.
+	 */
+	public Regions getContaining(int x, int y, int width, int height) {
+		return query(x, y, width, height, Query.CONTAINING);
+	}
+
+	/**
+	 * Sets to 0 the pixels of an image covered by the areas. Each row is
+	 * cleared span by span, once per pixel even where areas overlap.
+	 * @param img The image to mask.
+	 */
+	public void mask(GrayImage img) {
+
+		int imgWidth = img.getWidth(), imgHeight = img.getHeight();
+		int[] candidates = new int[8];
+		long[] spans = new long[8];
+
+		for (int r = 0; r < rows; ++r) {
+
+			// the last band also holds the areas below the edge of the grid
+			int bandMinY = r * CELL_SIZE,
+				bandMaxY = r == rows - 1
+					? imgHeight
+					: Math.min(bandMinY + CELL_SIZE, imgHeight);
+
+			// areas intersecting the band of rows
+			int candidatesCount = 0;
+			++visitStamp;
+			for (int c = 0; c < columns; ++c) {
+				int cell = r * columns + c;
+				for (int k = 0; k < cellSizes[cell]; ++k) {
+					int i = cells[cell][k];
+					if (removed[i] || visitStamps[i] == visitStamp) continue;
+					visitStamps[i] = visitStamp;
+					if (candidatesCount == candidates.length) {
+						candidates =
+							Arrays.copyOf(candidates, 2 * candidatesCount);
+					}
+					candidates[candidatesCount++] = i;
+				}
+			}
+
+			for (int y = Math.max(bandMinY, 0); y < bandMaxY; ++y) {
+
+				// spans packed as (start << 32 | end) to be sorted by start
+				int spansCount = 0;
+				for (int k = 0; k < candidatesCount; ++k) {
+					int i = candidates[k],
+						minX = Math.max(regions.getX(i), 0),
+						maxX = Math.min(regions.getMaxX(i), imgWidth);
+					if (y < regions.getY(i) || y >= regions.getMaxY(i)
+						|| minX >= maxX) {
+
+						continue;
+					}
+					if (spansCount == spans.length) {
+						spans = Arrays.copyOf(spans, 2 * spansCount);
+					}
+					spans[spansCount++] = (long) minX << 32 | maxX;
+				}
+				Arrays.sort(spans, 0, spansCount);
+
+				int cleared = 0;
+				for (int k = 0; k < spansCount; ++k) {
+					int start = Math.max((int) (spans[k] >>> 32), cleared),
+						end = (int) spans[k];
+					for (int x = start; x < end; ++x) {
+						img.setValue(x, y, 0);
+					}
+					cleared = Math.max(cleared, end);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Merges areas that are near-duplicates, i.e. one contains the other once
+	 * grown by a tolerance, into their bounding box. This is repeated until
+	 * no near-duplicates remain. The merged area takes the place of the
+	 * first one added.
+	 * @param tolerance The number of pixels by which an area may go over
+	 *                  another one and still be contained.
+	 */
+	public void mergeNearDuplicates(int tolerance) {
+
+		boolean progresses;
+		do {
+			progresses = false;
+			for (int i = 0; i < regions.size(); ++i) {
+
+				if (removed[i]) continue;
+				int[] neighbours = queryIndices(
+					regions.getX(i) - tolerance, regions.getY(i) - tolerance,
+					regions.getWidth(i) + 2 * tolerance,
+					regions.getHeight(i) + 2 * tolerance, Query.NEARBY
+				);
+
+				for (int j : neighbours) {
+					if (j == i || removed[j]
+						|| !areNearDuplicates(i, j, tolerance)) {
+
+						continue;
+					}
+
+					int first = Math.min(i, j), second = Math.max(i, j),
+						minX = Math.min(regions.getX(i), regions.getX(j)),
+						minY = Math.min(regions.getY(i), regions.getY(j)),
+						maxX = Math.max(regions.getMaxX(i), regions.getMaxX(j)),
+						maxY = Math.max(regions.getMaxY(i), regions.getMaxY(j));
+					regions.set(first, minX, minY, maxX - minX, maxY - minY);
+					removed[second] = true;
+					++removedCount;
+					addToCells(first, minX, minY, maxX - minX, maxY - minY);
+					progresses = true;
+					if (second == i) break;
+				}
+			}
+		} while (progresses);
+	}
+
+	private boolean areNearDuplicates(int i, int j, int tolerance) {
+		return contains(i, j, tolerance) || contains(j, i, tolerance);
+	}
+
+	// tells whether area a, grown by the tolerance, contains area b
+	private boolean contains(int a, int b, int tolerance) {
+		return regions.getX(b) >= regions.getX(a) - tolerance
+			&& regions.getY(b) >= regions.getY(a) - tolerance
+			&& regions.getMaxX(b) <= regions.getMaxX(a) + tolerance
+			&& regions.getMaxY(b) <= regions.getMaxY(a) + tolerance;
+	}
+
+	private Regions query(int x, int y, int width, int height,
+		Query query) {
+
+		int[] sorted = queryIndices(x, y, width, height, query);
+		Arrays.sort(sorted);
+
+		Regions res = new Regions(sorted.length);
+		for (int i : sorted) {
+			res.add(regions, i);
+		}
+		return res;
+	}
+
+	// provides the indices of the matching areas
+	private int[] queryIndices(int x, int y, int width, int height,
+		Query query) {
+
+		int[] res = new int[8];
+		int count = 0;
+		++visitStamp;
+
+		// empty areas are listed in the cell of their corner
+		int minC = getColumn(x), maxC = getColumn(x + Math.max(width, 1) - 1),
+			minR = getRow(y), maxR = getRow(y + Math.max(height, 1) - 1);
+
+		for (int r = minR; r <= maxR; ++r) {
+			for (int c = minC; c <= maxC; ++c) {
+				int cell = r * columns + c;
+				for (int k = 0; k < cellSizes[cell]; ++k) {
+					int i = cells[cell][k];
+					if (removed[i] || visitStamps[i] == visitStamp) continue;
+					visitStamps[i] = visitStamp;
+
+					if (query == Query.OVERLAPPING
+							&& !regions.intersects(i, x, y, width, height)
+						|| query == Query.CONTAINING
+							&& !(regions.getX(i) <= x && regions.getY(i) <= y
+								&& regions.getMaxX(i) >= x + width
+								&& regions.getMaxY(i) >= y + height)) {
+
+						continue;
+					}
+					if (count == res.length) {
+						res = Arrays.copyOf(res, 2 * count);
+					}
+					res[count++] = i;
+				}
+			}
+		}
+
+		return Arrays.copyOf(res, count);
+	}
+
+	private void addToCells(int i, int x, int y, int width, int height) {
+
+		// empty areas are listed in the cell of their corner
+		int minC = getColumn(x), maxC = getColumn(x + Math.max(width, 1) - 1),
+			minR = getRow(y), maxR = getRow(y + Math.max(height, 1) - 1);
+
+		for (int r = minR; r <= maxR; ++r) {
+			for (int c = minC; c <= maxC; ++c) {
+				int cell = r * columns + c;
+				int[] content = cells[cell];
+				if (content == null) {
+					content = cells[cell] = new int[4];
+				}
+				// an area grown by a merge may be listed twice in a cell, the
+				// visit stamps make queries skip the second occurrence
+				if (cellSizes[cell] == content.length) {
+					content = cells[cell] =
+						Arrays.copyOf(content, 2 * content.length);
+				}
+				content[cellSizes[cell]++] = i;
+			}
+		}
+	}
+
+	private int getColumn(int x) {
+		return Math.min(Math.max(x, 0) / CELL_SIZE, columns - 1);
+	}
+
+	private int getRow(int y) {
+		return Math.min(Math.max(y, 0) / CELL_SIZE, rows - 1);
+	}
+
+}
@@ -0,0 +1,278 @@
+package textlocator;
+
+import java.util.Arrays;
+
+/**
+ * Growable list of rectangular regions, packed as (x, y, width, height)
+ * integers in a single array.
+ * @author MX-Futhark
+ */
+public final class Regions {
+
+	private static final int FIELDS = 4;
+
+	private int[] data;
+	private int size;
+
+	/**
+	 * Constructor for an empty list.
+	 */
+	public Regions() {
+		this(8);
+	}
+
+	/**
+	 * Constructor for an empty list.
+	 * @param capacity The number of regions the list can hold before growing.
+	 */
+	public Regions(int capacity) {
+		data = new int[Math.max(capacity, 1) * FIELDS];
+		size = 0;
+	}
+
+	/**
+	 * Constructor for a list holding packed regions.
+	 * @param packed The regions, packed as (x, y, width, height) integers.
+	 */
+	public Regions(int[] packed) {
+		if (packed.length % FIELDS != 0) {
+			throw new IllegalArgumentException(
+				"packed regions must have " + FIELDS + " fields each"
+			);
+		}
+		data = Arrays.copyOf(packed, Math.max(packed.length, FIELDS));
+		size = packed.length / FIELDS;
+	}
+
+	/**
+	 * Getter on the number of regions.
+	 * @return The number of regions.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Tells whether there is no region.
+	 * @return True if the list is empty.
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Appends a region.
+	 * @param x The X coordinate of the region.
+	 * @param y The Y coordinate of the region.
+	 * @param width The width of the region.
+	 * @param height The height of the region.
+	 */
+	public void add(int x, int y, int width, int height) {
+		if ((size + 1) * FIELDS > data.length) {
+			data = Arrays.copyOf(data, 2 * data.length);
+		}
+		set(size++, x, y, width, height);
+	}
+
+	/**
+	 * Appends a region of another list.
+	 * @param other The other list.
+	 * @param i The index of the region in the other list.
+	 */
+	public void add(Regions other, int i) {
+		add(other.getX(i), other.getY(i), other.getWidth(i),
+			other.getHeight(i));
+	}
+
+	/**
+	 * Appends all the regions of another list.
+	 * @param other The other list.
+	 */
+	public void addAll(Regions other) {
+		if ((size + other.size) * FIELDS > data.length) {
+			data = Arrays.copyOf(
+				data, Math.max(2 * data.length, (size + other.size) * FIELDS)
+			);
+		}
+		System.arraycopy(
+			other.data, 0, data, size * FIELDS, other.size * FIELDS
+		);
+		size += other.size;
+	}
+
+	/**
+	 * Replaces a region.
+	 * @param i The index of the region.
+	 * @param x The new X coordinate of the region.
+	 * @param y The new Y coordinate of the region.
+	 * @param width The new width of the region.
+	 * @param height The new height of the region.
+	 */
+	public void set(int i, int x, int y, int width, int height) {
+		int offset = i * FIELDS;
+		data[offset] = x;
+		data[offset + 1] = y;
+		data[offset + 2] = width;
+		data[offset + 3] = height;
+	}
+
+	/**
+	 * Removes a region, keeping the others in order.
+	 * @param i The index of the region.
+	 */
+	public void remove(int i) {
+		System.arraycopy(
+			data, (i + 1) * FIELDS, data, i * FIELDS, (size - i - 1) * FIELDS
+		);
+		--size;
+	}
+
+	/**
+	 * Removes all the regions.
+	 */
+	public void clear() {
+		size = 0;
+	}
+
+	/**
+	 * Getter on the X coordinate of a region.
+	 * @param i The index of the region.
+	 * @return The X coordinate of the region.
+	 */
+	public int getX(int i) {
+		return data[i * FIELDS];
+	}
+
+	/**
+	 * Getter on the Y coordinate of a region.
+	 * @param i The index of the region.
+	 * @return The Y coordinate of the region.
+	 */
+	public int getY(int i) {
+		return data[i * FIELDS + 1];
+	}
+
+	/**
+	 * Getter on the width of a region.
+	 * @param i The index of the region.
+	 * @return The width of the region.
+	 */
+	public int getWidth(int i) {
+		return data[i * FIELDS + 2];
+	}
+
+	/**
+	 * Getter on the height of a region.
+	 * @param i The index of the region.
+	 * @return The height of the region.
+	 */
+	public int getHeight(int i) {
+		return data[i * FIELDS + 3];
+	}
+
+	/**
+	 * Getter on the X coordinate of the right edge (exclusive) of a region.
+	 * @param i The index of the region.
+	 * @return The X coordinate of the right edge (exclusive) of the region.
+	 */
+	public int getMaxX(int i) {
+		return getX(i) + getWidth(i);
+	}
+
+	/**
+	 * Getter on the Y coordinate of the bottom edge (exclusive) of a region.
+	 * @param i The index of the region.
+	 * @return The Y coordinate of the bottom edge (exclusive) of the region.
+	 */
+	public int getMaxY(int i) {
+		return getY(i) + getHeight(i);
+	}
+
+	/**
+	 * Tells whether a region intersects a rectangle.
+	 * @param i The index of the region.
+	 * @param x The X coordinate of the rectangle.
+	 * @param y The Y coordinate of the rectangle.
+	 * @param width The width of the rectangle.
+	 * @param height The height of the rectangle.
+	 * @return True if both have at least one pixel in common.
+	 */
+	public boolean intersects(int i, int x, int y, int width, int height) {
+		return width > 0 && height > 0 && getWidth(i) > 0 && getHeight(i) > 0
+			&& x < getMaxX(i) && getX(i) < x + width
+			&& y < getMaxY(i) && getY(i) < y + height;
+	}
+
+	/**
+	 * Moves all the regions.
+	 * @param dx The offset along the X axis.
+	 * @param dy The offset along the Y axis.
+	 */
+	public void translate(int dx, int dy) {
+		for (int i = 0; i < size; ++i) {
+			data[i * FIELDS] += dx;
+			data[i * FIELDS + 1] += dy;
+		}
+	}
+
+	/**
+	 * Provides a copy of the regions scaled by a factor, each coordinate and
+	 * size being truncated.
+	 * @param factor The scale factor.
+	 * @return The scaled regions.
+	 */
+	public Regions scale(float factor) {
+		Regions res = new Regions(size);
+		double f = factor;
+		for (int i = 0; i < size; ++i) {
+			res.add(
+				(int) (getX(i) * f), (int) (getY(i) * f),
+				(int) (getWidth(i) * f), (int) (getHeight(i) * f)
+			);
+		}
+		return res;
+	}
+
+	/**
+	 * Swaps the X and Y axes of all the regions, as when transposing the image
+	 * they belong to.
+	 */
+	public void transpose() {
+		for (int i = 0; i < size; ++i) {
+			set(i, getY(i), getX(i), getHeight(i), getWidth(i));
+		}
+	}
+
+	/**
+	 * Provides the regions packed as (x, y, width, height) integers.
+	 * @return A copy of the packed regions.
+	 */
+	public int[] toArray() {
+		return Arrays.copyOf(data, size * FIELDS);
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof Regions)) return false;
+		Regions other = (Regions) o;
+		return size == other.size && Arrays.equals(toArray(), other.toArray());
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(toArray());
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("[");
+		for (int i = 0; i < size; ++i) {
+			sb.append(i > 0 ? ", " : "").append(String.format(
+				"[x=%d,y=%d,width=%d,height=%d]",
+				getX(i), getY(i), getWidth(i), getHeight(i)
+			));
+		}
+		return sb.append("]").toString();
+	}
+
+}
@@ -0,0 +1,680 @@
+package textlocator;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Checks that the engines of the pipeline give the same results as the
+ * reference engine, TextPositionDetector.apply, and measures their
+ * throughput. Runs over the given images, or the images of examples/, plus
+ * generated images of text.
+ * As all the engines share the pipeline, the reference engine is also
+ * checked against the text areas found in the examples by the original
+ * implementation, pinned in examples/reference.txt, so that a drift of the
+ * pipeline is found too.
+ *
+ * The report lists, for each image, the text areas of the reference and the
+ * differences found in the other engines and in the intermediate maps, then
+ * the throughput and latency of each engine. Detection inside areas of
+ * interest is checked with several areas and schedules against detection
+ * on the whole image, see checkAreasOfInterest. Everything but the timings is
+ * deterministic, so reports of two commits can be compared with diff.
+ *
+ * Usage: RegressionHarness [--iterations N] [--synthetic N] [--seed N]
+ *                          [--out FILE] [IMAGE...]
+ * The exit status is 1 if any difference was found.
+ * @author MX-Futhark
+ */
+public class RegressionHarness {
+
+	/**
+	 * Runs an engine of the pipeline on an image.
+	 * @author MX-Futhark
+	 */
+	private interface Engine {
+		Regions detect(BufferedImage rgbImg) throws IOException;
+	}
+
+	private static final String EXAMPLES_DIR = "examples";
+	// one line per example: its file name and its text areas, as
+	// x,y,width,height
+	private static final String PINNED_RESULTS = "reference.txt";
+	private static final String SYNTHETIC_TEXT =
+		"ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789";
+
+	private final Map<String, Engine> engines = new LinkedHashMap<>();
+	private final Map<String, Regions> pinnedResults;
+	private final PrintStream out;
+	private int differences = 0;
+
+	private RegressionHarness(PrintStream out) throws IOException {
+		this.out = out;
+		this.pinnedResults = readPinnedResults();
+
+		engines.put("reference", rgbImg ->
+			AwtAdapter.toRegions(TextPositionDetector.apply(rgbImg))
+		);
+		engines.put("headless", rgbImg ->
+			MultiresolutionTextPositionDetector.apply(
+				AwtAdapter.getRgbPixels(rgbImg), rgbImg.getWidth(),
+				rgbImg.getHeight()
+			)
+		);
+		engines.put("roi-full-frame", rgbImg -> {
+			List<Rectangle> wholeImage = new LinkedList<>();
+			wholeImage.add(
+				new Rectangle(rgbImg.getWidth(), rgbImg.getHeight())
+			);
+			return AwtAdapter.toRegions(
+				TextPositionDetector.apply(rgbImg, wholeImage)
+			);
+		});
+		engines.put("off-heap", rgbImg ->
+			MultiresolutionTextPositionDetector.detect(
+				OffHeapGrayImage.copyOf(toGrayImage(rgbImg)),
+				PyramidSchedule.DEFAULT, CancellationToken.NONE
+			).getRegions()
+		);		engines.put("speculative", rgbImg ->
+			MultiresolutionTextPositionDetector.detect(
+				toGrayImage(rgbImg),
+				PyramidSchedule.DEFAULT.withSpeculativeLevels(true),
+				CancellationToken.NONE
+			).getRegions()
+		);
+	}
+
+	public static void main(String[] argv) throws IOException {
+
+		int iterations = 5, synthetic = 8;
+		long seed = 0;
+		String outPath = null;
+		List<String> paths = new LinkedList<>();
+
+		for (int i = 0; i < argv.length; ++i) {
+			switch (argv[i]) {
+			case "--iterations":
+				iterations = Integer.parseInt(argv[++i]);
+				break;
+			case "--synthetic":
+				synthetic = Integer.parseInt(argv[++i]);
+				break;
+			case "--seed":
+				seed = Long.parseLong(argv[++i]);
+				break;
+			case "--out":
+				outPath = argv[++i];
+				break;
+			default:
+				paths.add(argv[i]);
+			}
+		}
+		if (paths.isEmpty()) {
+			File[] files = new File(EXAMPLES_DIR).listFiles(
+				(dir, name) -> name.toLowerCase().endsWith(".png")
+			);
+			if (files != null) {
+				Arrays.sort(files);
+				for (File file : files) {
+					paths.add(file.getPath());
+				}
+			}
+		}
+
+		Map<String, BufferedImage> images = new LinkedHashMap<>();
+		for (String path : paths) {
+			images.put(path, ImageIO.read(new File(path)));
+		}
+		Random random = new Random(seed);
+		for (int i = 0; i < synthetic; ++i) {
+			images.put(
+				String.format("synthetic-%02d", i),
+				createSyntheticImage(random, false)
+			);
+		}
+		if (synthetic > 0) {
+			images.put("synthetic-odd", createSyntheticImage(random, true));
+		}
+
+		PrintStream out = outPath == null
+			? System.out
+			: new PrintStream(outPath, "UTF-8");
+		RegressionHarness harness = new RegressionHarness(out);
+		harness.checkEquivalence(images);
+		harness.measureThroughput(images, iterations);
+		out.flush();
+
+		if (harness.differences > 0) {
+			System.err.println(harness.differences + " difference(s) found");
+			System.exit(1);
+		}
+	}
+
+	// compares the engines and the intermediate maps on every image
+	private void checkEquivalence(Map<String, BufferedImage> images)
+		throws IOException {
+
+		out.println("# equivalence");
+
+		for (Map.Entry<String, BufferedImage> entry : images.entrySet()) {
+
+			BufferedImage rgbImg = entry.getValue();
+			Regions reference = engines.get("reference").detect(rgbImg);
+			out.println(String.format(
+				"%s %dx%d %s", entry.getKey(), rgbImg.getWidth(),
+				rgbImg.getHeight(), reference
+			));
+
+			Regions pinned = pinnedResults.get(entry.getKey());
+			if (pinned != null) {
+				report("pinned", pinned.equals(reference)
+					? null
+					: "expected " + pinned);
+			}
+
+			for (Map.Entry<String, Engine> engine : engines.entrySet()) {
+				if (engine.getKey().equals("reference")) continue;
+				Regions res = engine.getValue().detect(rgbImg);
+				report("engine " + engine.getKey(), reference.equals(res)
+					? null
+					: res.toString());
+			}
+
+			checkMaps(rgbImg);
+			checkAreasOfInterest(rgbImg);
+		}
+
+		out.println();
+	}
+
+	// compares the intermediate maps of the engines to the reference ones
+	private void checkMaps(BufferedImage rgbImg) {
+
+		GrayImage grayImg = toGrayImage(rgbImg);
+		GrayImage globalMap = EdgeMap.applyGlobalThresholding(grayImg);
+
+		reportMap("map global-off-heap", globalMap,
+			EdgeMap.applyGlobalThresholding(OffHeapGrayImage.copyOf(grayImg)));
+		reportMap("map global-single-pass", globalMap,
+			EdgeMap.applyGlobalThresholding(
+				AwtAdapter.getRgbPixels(rgbImg), rgbImg.getWidth(),
+				rgbImg.getHeight(), DetectorConfig.DEFAULT,
+				CancellationToken.NONE
+			));
+
+		GrayImage localMap = EdgeMap.applyLocalThresholding(globalMap);
+		reportMap("map recovery-tiled",
+			EdgeMap.applyTextRecovery(globalMap, localMap),
+			EdgeMap.applyTextRecovery(globalMap, localMap,
+				ForkJoinPool.commonPool(), CancellationToken.NONE));
+		GrayImage streamedMap = grayImg.createCompatibleImage(
+			grayImg.getWidth(), grayImg.getHeight()
+		);
+		StreamingEdgeMap stream = new StreamingEdgeMap(
+			grayImg.getWidth(), GrayImage.DesaturationMethod.LUMINANCE,
+			(y, row) -> {
+				for (int i = 0; i < row.length; ++i) {
+					streamedMap.setValue(i, y, row[i]);
+				}
+			}
+		);
+		int[] grayRow = new int[grayImg.getWidth()];
+		for (int j = 0; j < grayImg.getHeight(); ++j) {
+			for (int i = 0; i < grayRow.length; ++i) {
+				grayRow[i] = grayImg.getValue(i, j);
+			}
+			stream.pushGrayRow(grayRow);
+		}
+		stream.finish();
+		reportMap("map local-streaming", localMap, streamedMap);
+
+		for (int level = PyramidSchedule.DEFAULT.getMinLevel();
+			level <= PyramidSchedule.DEFAULT.getMaxLevel(); ++level) {
+
+			float f = PyramidSchedule.DEFAULT.getScaleDownFactor(level);
+			int width = (int) (globalMap.getWidth() / f),
+				height = (int) (globalMap.getHeight() / f);
+			if (width == 0 || height == 0) break;
+
+			GrayImage resizedMap = globalMap.getScaledInstance(width, height);
+			reportMap("map resize-awt-" + level,
+				getAwtScaledInstance(globalMap, width, height), resizedMap);
+
+			LevelEdgeMap levelEdgeMap = new LevelEdgeMap(
+				resizedMap, 0, 0, width, height, DetectorConfig.DEFAULT,
+				CancellationToken.NONE
+			);
+			GrayImage postLocalThresholdMap =
+				EdgeMap.applyLocalThresholding(resizedMap);
+			reportMap("map local-fused-" + level, postLocalThresholdMap,
+				levelEdgeMap.getPostLocalThresholdMap());
+			reportMap("map recovery-fused-" + level,
+				EdgeMap.applyTextRecovery(
+					postLocalThresholdMap, postLocalThresholdMap
+				),
+				levelEdgeMap.getTextRecoveryMap(CancellationToken.NONE));
+		}
+	}
+
+	// compares detection inside areas of interest to detection on the whole
+	// image only looking for text inside the merged areas, and the level maps
+	// after local thresholding inside the areas to those of the whole image
+	private void checkAreasOfInterest(BufferedImage rgbImg)
+		throws IOException {
+
+		GrayImage grayImg = toGrayImage(rgbImg);
+		int width = grayImg.getWidth(), height = grayImg.getHeight();
+
+		for (Map.Entry<String, PyramidSchedule> schedule
+			: getAreaOfInterestSchedules().entrySet()) {
+
+			DetectorConfig config =
+				DetectorConfig.DEFAULT.withSchedule(schedule.getValue());
+			GrayImage globalMap = EdgeMap.applyGlobalThresholding(
+				grayImg, config, CancellationToken.NONE
+			);
+
+			for (Map.Entry<String, Regions> areas
+				: getAreasOfInterest(width, height).entrySet()) {
+
+				Regions merged =
+					MultiresolutionTextPositionDetector.mergeOverlappingAreas(
+						areas.getValue(), 0, width, height
+					);
+				Regions expected = new Regions();
+				int differentPixels = 0;
+				for (int i = 0; i < merged.size(); ++i) {
+					expected.addAll(
+						MultiresolutionTextPositionDetector.detectOnEdgeMap(
+							globalMap, new int[] {
+								merged.getX(i), merged.getY(i),
+								merged.getWidth(i), merged.getHeight(i)
+							},
+							config, null, CancellationToken.NONE
+						).getRegions()
+					);
+					differentPixels += countLevelMapDifferences(
+						grayImg, globalMap, merged, i, config
+					);
+				}
+
+				Regions res = MultiresolutionTextPositionDetector.detect(
+					grayImg, areas.getValue(), config, CancellationToken.NONE
+				).getRegions();
+				String check =
+					"roi-" + areas.getKey() + "-" + schedule.getKey();
+				report("engine " + check,
+					expected.equals(res) ? null : res.toString());
+				report("map " + check, differentPixels == 0
+					? null
+					: differentPixels + " pixel(s)");
+			}
+		}
+	}
+
+	// counts the pixels of each level map inside an area of interest that
+	// differ from those of the whole image, the level being built from the
+	// context of the area as detection inside areas of interest does
+	private static int countLevelMapDifferences(GrayImage grayImg,
+		GrayImage globalMap, Regions areas, int area, DetectorConfig config) {
+
+		int width = grayImg.getWidth(), height = grayImg.getHeight();
+		PyramidSchedule schedule = config.getSchedule();
+		int[] context = MultiresolutionTextPositionDetector.getContextArea(
+			areas, area, width, height, schedule
+		);
+		GrayImage contextMap = EdgeMap.applyGlobalThresholding(
+			grayImg.getSubimage(context[0], context[1], context[2], context[3]),
+			config, CancellationToken.NONE
+		);
+		int[] frame = {context[0], context[1], width, height};
+		int differentPixels = 0;
+
+		for (int level = schedule.getMinLevel();
+			level <= schedule.getMaxLevel(); ++level) {
+
+			float f = schedule.getScaleDownFactor(level);
+			int scaledWidth = (int) (width / f),
+				scaledHeight = (int) (height / f);
+			if (scaledWidth == 0 || scaledHeight == 0) break;
+
+			GrayImage levelMap = new LevelEdgeMap(
+				globalMap.getScaledInstance(scaledWidth, scaledHeight),
+				0, 0, scaledWidth, scaledHeight, config,
+				CancellationToken.NONE
+			).getPostLocalThresholdMap();
+
+			int[] scaledArea = MultiresolutionTextPositionDetector
+				.scaleDownArea(
+					new int[] {
+						areas.getX(area), areas.getY(area),
+						areas.getWidth(area), areas.getHeight(area)
+					},
+					f, scaledWidth, scaledHeight
+				);
+			int[] window = MultiresolutionTextPositionDetector
+				.getLevelWindow(scaledArea, scaledWidth, scaledHeight);
+			GrayImage windowMap = new LevelEdgeMap(
+				contextMap.getScaledArea(
+					frame, scaledWidth, scaledHeight, window
+				),
+				0, 0, window[2], window[3], config, CancellationToken.NONE
+			).getPostLocalThresholdMap();
+
+			for (int j = scaledArea[1]; j < scaledArea[1] + scaledArea[3];
+				++j) {
+
+				for (int i = scaledArea[0];
+					i < scaledArea[0] + scaledArea[2]; ++i) {
+
+					if (levelMap.getValue(i, j) != windowMap.getValue(
+						i - window[0], j - window[1])) {
+
+						++differentPixels;
+					}
+				}
+			}
+		}
+
+		return differentPixels;
+	}
+
+	// schedules of checkAreasOfInterest: levels whose factors are not
+	// integers, or do not divide the largest one, have other kernel grids
+	private static Map<String, PyramidSchedule> getAreaOfInterestSchedules() {
+
+		Map<String, PyramidSchedule> res = new LinkedHashMap<>();
+		res.put("default", PyramidSchedule.DEFAULT);
+		res.put("linear-1-3", PyramidSchedule.linear(1, 3));
+		res.put("fractional", PyramidSchedule.of(1f, 1.5f, 2.5f));
+		res.put("speculative",
+			PyramidSchedule.of(1f, 1.5f, 2.5f).withSpeculativeLevels(true));
+		return res;
+	}
+
+	// areas of checkAreasOfInterest, off the kernel grids: inside the image,
+	// touching its edges, and pairs of areas merged or not
+	private static Map<String, Regions> getAreasOfInterest(int width,
+		int height) {
+
+		Map<String, Regions> res = new LinkedHashMap<>();
+
+		Regions interior = new Regions(1);
+		interior.add(width / 4 + 3, height / 3 + 5, width / 2 + 1,
+			height / 4 + 7);
+		res.put("interior", interior);
+
+		Regions bottom = new Regions(1);
+		bottom.add(0, height - height / 3, width, height / 3);
+		res.put("bottom", bottom);
+
+		Regions corner = new Regions(1);
+		corner.add(width * 2 / 3 + 1, 0, width - width * 2 / 3 - 1,
+			height / 2 + 3);
+		res.put("corner", corner);
+
+		Regions overlapping = new Regions(2);
+		overlapping.add(width / 8 + 1, height / 8 + 1, width / 3,
+			height / 3);
+		overlapping.add(width / 4 + 5, height / 5 + 3, width / 3,
+			height / 3);
+		res.put("overlapping", overlapping);
+
+		Regions disjoint = new Regions(2);
+		disjoint.add(1, 1, width / 5, height / 5);
+		disjoint.add(width / 2 + 7, height / 2 + 9, width / 4, height / 5);
+		res.put("disjoint", disjoint);
+
+		return res;
+	}
+
+	// reads the text areas of the examples found by the original
+	// implementation, by path of the example
+	private static Map<String, Regions> readPinnedResults()
+		throws IOException {
+
+		Map<String, Regions> res = new HashMap<>();
+		File file = new File(EXAMPLES_DIR, PINNED_RESULTS);
+		if (!file.exists()) return res;
+
+		for (String line : Files.readAllLines(
+			file.toPath(), StandardCharsets.UTF_8)) {
+
+			if (line.isBlank() || line.startsWith("#")) continue;
+			String[] fields = line.trim().split("\\s+");
+			Regions regions = new Regions(fields.length - 1);
+			for (int i = 1; i < fields.length; ++i) {
+				String[] values = fields[i].split(",");
+				regions.add(
+					Integer.parseInt(values[0]), Integer.parseInt(values[1]),
+					Integer.parseInt(values[2]), Integer.parseInt(values[3])
+				);
+			}
+			res.put(new File(EXAMPLES_DIR, fields[0]).getPath(), regions);
+		}
+		return res;
+	}
+
+	// runs every engine several times over all the images
+	private void measureThroughput(Map<String, BufferedImage> images,
+		int iterations) throws IOException {
+
+		out.println("# throughput (" + iterations + " iterations, "
+			+ images.size() + " images)");
+		out.println(String.format("%-16s %10s %10s %10s %14s",
+			"engine", "images/s", "p50 ms", "p99 ms", "bytes/image"));
+
+		java.lang.management.ThreadMXBean threads =
+			ManagementFactory.getThreadMXBean();
+		com.sun.management.ThreadMXBean allocations =
+			threads instanceof com.sun.management.ThreadMXBean
+				? (com.sun.management.ThreadMXBean) threads
+				: null;
+
+		for (Map.Entry<String, Engine> engine : engines.entrySet()) {
+
+			// warm-up
+			for (BufferedImage rgbImg : images.values()) {
+				engine.getValue().detect(rgbImg);
+			}
+
+			long[] latencies = new long[iterations * images.size()];
+			int n = 0;
+			Map<Long, Long> allocatedBefore = allocations != null
+				? getAllocatedBytes(allocations)
+				: null;
+			long start = System.nanoTime();
+
+			for (int k = 0; k < iterations; ++k) {
+				for (BufferedImage rgbImg : images.values()) {
+					long imageStart = System.nanoTime();
+					engine.getValue().detect(rgbImg);
+					latencies[n++] = System.nanoTime() - imageStart;
+				}
+			}
+
+			long elapsed = System.nanoTime() - start;
+			long allocated = -1;
+			if (allocations != null) {
+				allocated = 0;
+				for (Map.Entry<Long, Long> thread
+					: getAllocatedBytes(allocations).entrySet()) {
+
+					allocated += thread.getValue()
+						- allocatedBefore.getOrDefault(thread.getKey(), 0L);
+				}
+				allocated /= n;
+			}
+			Arrays.sort(latencies);
+
+			out.println(String.format(Locale.ROOT,
+				"%-16s %10.2f %10.3f %10.3f %14d", engine.getKey(),
+				n / (elapsed / 1e9), getPercentile(latencies, 0.5) / 1e6,
+				getPercentile(latencies, 0.99) / 1e6, allocated));
+		}
+	}
+
+	// provides the bytes allocated so far by each live thread, so that the
+	// allocations of the common pool, which runs the tiled text recovery and
+	// the vertical pass, are counted too; the allocations of threads ending
+	// during a measure are lost
+	private static Map<Long, Long> getAllocatedBytes(
+		com.sun.management.ThreadMXBean allocations) {
+
+		long[] ids = allocations.getAllThreadIds();
+		long[] bytes = allocations.getThreadAllocatedBytes(ids);
+		Map<Long, Long> res = new HashMap<>();
+		for (int i = 0; i < ids.length; ++i) {
+			if (bytes[i] >= 0) res.put(ids[i], bytes[i]);
+		}
+		return res;
+	}
+
+	private void report(String check, String difference) {
+		if (difference == null) {
+			out.println("  " + check + ": OK");
+		} else {
+			++differences;
+			out.println("  " + check + ": DIFFERENT " + difference);
+		}
+	}
+
+	private void reportMap(String check, GrayImage expected,
+		GrayImage actual) {
+
+		if (expected.getWidth() != actual.getWidth()
+			|| expected.getHeight() != actual.getHeight()) {
+
+			report(check, "size " + actual.getWidth() + "x"
+				+ actual.getHeight());
+			return;
+		}
+
+		int differentPixels = 0;
+		for (int j = 0; j < expected.getHeight(); ++j) {
+			for (int i = 0; i < expected.getWidth(); ++i) {
+				if (expected.getValue(i, j) != actual.getValue(i, j)) {
+					++differentPixels;
+				}
+			}
+		}
+
+		report(check,
+			differentPixels == 0 ? null : differentPixels + " pixel(s)");
+	}
+
+	private static long getPercentile(long[] sorted, double p) {
+		int i = (int) Math.ceil(p * sorted.length) - 1;
+		return sorted[Math.min(Math.max(i, 0), sorted.length - 1)];
+	}
+
+	private static GrayImage toGrayImage(BufferedImage rgbImg) {
+		return AwtAdapter.toGrayImage(
+			rgbImg, GrayImage.DesaturationMethod.LUMINANCE
+		);
+	}
+
+	// resizes an image the way the pipeline used to, through AWT
+	private static GrayImage getAwtScaledInstance(GrayImage img, int width,
+		int height) {
+
+		Image scaled = AwtAdapter.toBufferedImage(img).getScaledInstance(
+			width, height, Image.SCALE_AREA_AVERAGING
+		);
+		BufferedImage res =
+			new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		res.getGraphics().drawImage(scaled, 0, 0, null);
+
+		return AwtAdapter.toGrayImage(
+			res, GrayImage.DesaturationMethod.GREEN_ONLY
+		);
+	}
+
+	// draws lines of random text of various sizes and colors on a noisy
+	// background, with odd sides if asked so that resized levels do not
+	// divide the image evenly
+	private static BufferedImage createSyntheticImage(Random random,
+		boolean oddSize) {
+
+		int width = 320 + random.nextInt(320),
+			height = 240 + random.nextInt(240);
+		if (oddSize) {
+			width |= 1;
+			height |= 1;
+		}
+		BufferedImage res =
+			new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+
+		boolean darkBackground = random.nextBoolean();
+		for (int j = 0; j < height; ++j) {
+			for (int i = 0; i < width; ++i) {
+				int base = darkBackground ? 20 : 200,
+					value = base + (j * 30 / height) + random.nextInt(12);
+				res.setRGB(i, j, value << 16 | value << 8 | value);
+			}
+		}
+
+		Graphics2D graph = res.createGraphics();
+		graph.setRenderingHint(
+			RenderingHints.KEY_TEXT_ANTIALIASING,
+			RenderingHints.VALUE_TEXT_ANTIALIAS_ON
+		);
+
+		int lines = 1 + random.nextInt(6);
+		for (int l = 0; l < lines; ++l) {
+
+			int fontSize = 10 + random.nextInt(20);
+			graph.setFont(new Font(
+				random.nextBoolean() ? Font.SANS_SERIF : Font.SERIF,
+				random.nextBoolean() ? Font.PLAIN : Font.BOLD, fontSize
+			));
+			int value = darkBackground
+				? 180 + random.nextInt(76)
+				: random.nextInt(60);
+			graph.setColor(new Color(value, value, value));
+
+			StringBuilder text = new StringBuilder();
+			int words = 1 + random.nextInt(5);
+			for (int w = 0; w < words; ++w) {
+				int letters = 2 + random.nextInt(7);
+				for (int c = 0; c < letters; ++c) {
+					text.append(SYNTHETIC_TEXT.charAt(
+						random.nextInt(SYNTHETIC_TEXT.length())
+					));
+				}
+				text.append(' ');
+			}
+
+			graph.drawString(
+				text.toString().trim(), random.nextInt(width / 2),
+				fontSize + random.nextInt(Math.max(height - fontSize, 1))
+			);
+		}
+
+		graph.dispose();
+
+		return res;
+	}
+
+}
@@ -0,0 +1,205 @@
+package textlocator;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads the text areas of the frames of a video from a binary index written
+ * by ResultIndexWriter. The file is memory-mapped: the text areas of a
+ * frame are found in constant time through the offset table, and scanning a
+ * range of frames only reads its records.
+ * Files larger than a mapping are mapped in segments of SEGMENT_SIZE bytes.
+ * All values being aligned on their size, none of them spans two segments.
+ * Instances can be used by several threads at once.
+ * @author MX-Futhark
+ */
+public class ResultIndexReader implements Closeable {
+
+	private static final int SEGMENT_SHIFT = 30;
+	private static final long SEGMENT_SIZE = 1L << SEGMENT_SHIFT;
+	private static final long SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+	private final FileChannel channel;
+	private final MappedByteBuffer[] segments;
+	private final float frameRate;
+	private final long frames;
+	private final long tableOffset;
+
+	/**
+	 * Opens an index.
+	 * @param file The file of the index.
+	 * @throws IOException if the file cannot be read, or is not a complete
+	 *         index.
+	 */
+	public ResultIndexReader(Path file) throws IOException {
+
+		this.channel = FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			long size = channel.size();
+			this.segments = new MappedByteBuffer[
+				(int) ((size + SEGMENT_SIZE - 1) >>> SEGMENT_SHIFT)
+			];
+			for (int s = 0; s < segments.length; ++s) {
+				long start = (long) s << SEGMENT_SHIFT;
+				segments[s] = channel.map(
+					FileChannel.MapMode.READ_ONLY, start,
+					Math.min(SEGMENT_SIZE, size - start)
+				);
+				segments[s].order(ByteOrder.LITTLE_ENDIAN);
+			}
+
+			if (size < ResultIndexWriter.HEADER_SIZE
+				|| getInt(0) != ResultIndexWriter.MAGIC) {
+
+				throw new IOException("not a result index: " + file);
+			}
+			if (getInt(4) != ResultIndexWriter.VERSION) {
+				throw new IOException(
+					"unsupported result index version: " + getInt(4)
+				);
+			}
+			this.frameRate = Float.intBitsToFloat(getInt(8));
+			this.frames = getLong(16);
+			this.tableOffset = getLong(24);
+			if (tableOffset == 0
+				|| tableOffset + (frames + 1) * Long.BYTES != size) {
+
+				throw new IOException("incomplete result index: " + file);
+			}
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Getter on the number of frames of the index.
+	 * @return The number of frames.
+	 */
+	public long getFrames() {
+		return frames;
+	}
+
+	/**
+	 * Getter on the number of frames per second of the video.
+	 * @return The frame rate.
+	 */
+	public float getFrameRate() {
+		return frameRate;
+	}
+
+	/**
+	 * Provides the index of the frame shown at a given time.
+	 * @param seconds The time from the start of the video.
+	 * @return The index of the frame, which may be out of the index.
+	 */
+	public long getFrameAt(double seconds) {
+		return (long) Math.floor(seconds * frameRate);
+	}
+
+	/**
+	 * Provides the number of text areas of a frame without reading them.
+	 * @param frame The index of the frame.
+	 * @return The number of text areas of the frame.
+	 */
+	public int getTextAreaCount(long frame) {
+		return getInt(getRecordOffset(frame))
+			& ~ResultIndexWriter.DETECTED_FLAG;
+	}
+
+	/**
+	 * Tells whether the detection ran on a frame.
+	 * @param frame The index of the frame.
+	 * @return False if the text areas of the frame were interpolated.
+	 */
+	public boolean isDetected(long frame) {
+		return (getInt(getRecordOffset(frame))
+			& ResultIndexWriter.DETECTED_FLAG) != 0;
+	}
+
+	/**
+	 * Reads the text areas of a frame.
+	 * @param frame The index of the frame.
+	 * @return The text areas of the frame.
+	 */
+	public Regions getTextAreas(long frame) {
+
+		long offset = getRecordOffset(frame);
+		int count = getInt(offset) & ~ResultIndexWriter.DETECTED_FLAG;
+
+		Regions res = new Regions(count);
+		for (int i = 0; i < count; ++i) {
+			long area = offset + Integer.BYTES * (1 + 4 * i);
+			res.add(
+				getInt(area), getInt(area + Integer.BYTES),
+				getInt(area + 2 * Integer.BYTES),
+				getInt(area + 3 * Integer.BYTES)
+			);
+		}
+		return res;
+	}
+
+	/**
+	 * Reads the text areas of a range of frames, in the order of the frames.
+	 * @param fromFrame The first frame of the range.
+	 * @param toFrame The frame after the last one of the range.
+	 * @param listener The listener receiving the text areas of each frame.
+	 */
+	public void scan(long fromFrame, long toFrame,
+		FrameSampler.FrameListener listener) {
+
+		for (long f = Math.max(0, fromFrame); f < Math.min(toFrame, frames);
+			++f) {
+
+			listener.frameDone(f, getTextAreas(f), isDetected(f));
+		}
+	}
+
+	/**
+	 * Reads the text areas of the frames shown in a time range, in the order
+	 * of the frames.
+	 * @param fromSeconds The start of the range.
+	 * @param toSeconds The end of the range (exclusive).
+	 * @param listener The listener receiving the text areas of each frame.
+	 */
+	public void scanTime(double fromSeconds, double toSeconds,
+		FrameSampler.FrameListener listener) {
+
+		scan(getFrameAt(fromSeconds), getFrameAt(toSeconds), listener);
+	}
+
+	/**
+	 * Closes the file. The mappings are released once the reader is no
+	 * longer reachable.
+	 * @throws IOException
+	 */
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	private long getRecordOffset(long frame) {
+		if (frame < 0 || frame >= frames) {
+			throw new IndexOutOfBoundsException(
+				"frame " + frame + " out of 0.." + (frames - 1)
+			);
+		}
+		return getLong(tableOffset + frame * Long.BYTES);
+	}
+
+	private int getInt(long position) {
+		return segments[(int) (position >>> SEGMENT_SHIFT)]
+			.getInt((int) (position & SEGMENT_MASK));
+	}
+
+	private long getLong(long position) {
+		return segments[(int) (position >>> SEGMENT_SHIFT)]
+			.getLong((int) (position & SEGMENT_MASK));
+	}
+
+}
@@ -0,0 +1,201 @@
+package textlocator;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Writes the text areas of the frames of a video to a binary index, frame
+ * after frame, as they are found. See ResultIndexReader.
+ * The file is made of little-endian values:
+ *  - a header of HEADER_SIZE bytes: the magic number MAGIC, the format
+ *    VERSION, the frame rate as a float, a reserved int, the number of
+ *    frames as a long and the position of the offset table as a long, 0
+ *    until the index is closed,
+ *  - a record per frame: an int holding the number of text areas, with
+ *    DETECTED_FLAG set if the detection ran on the frame, followed by the
+ *    x, y, width and height ints of each text area,
+ *  - padding to a multiple of 8 bytes,
+ *  - the offset table: the position of the record of each frame as a long,
+ *    then the position of the end of the records.
+ * Frames are written in increasing order. Skipped frames get an empty
+ * record, not detected.
+ * Instances are not thread-safe.
+ * @author MX-Futhark
+ */
+public class ResultIndexWriter
+	implements FrameSampler.FrameListener, Closeable {
+
+	static final int MAGIC = 0x49524C54; // "TLRI" in little-endian order
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 32;
+	static final int DETECTED_FLAG = 0x80000000;
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final FileChannel channel;
+	private final float frameRate;
+	private final ByteBuffer buffer =
+		ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+	// position of the record of each frame
+	private long[] offsets = new long[1024];
+	private long frames = 0;
+	private long position = HEADER_SIZE;
+	private boolean closed = false;
+
+	/**
+	 * Creates an index, replacing the file if it exists.
+	 * @param file The file of the index.
+	 * @param frameRate The number of frames per second of the video, used
+	 *                  to find frames by time.
+	 * @throws IOException
+	 */
+	public ResultIndexWriter(Path file, float frameRate) throws IOException {
+
+		if (!(frameRate > 0f)) {
+			throw new IllegalArgumentException(
+				"invalid frame rate: " + frameRate
+			);
+		}
+		this.frameRate = frameRate;
+		this.channel = FileChannel.open(
+			file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+			StandardOpenOption.TRUNCATE_EXISTING
+		);
+		writeHeader(0);
+		channel.position(HEADER_SIZE);
+	}
+
+	/**
+	 * Writes the text areas of a frame.
+	 * @param frame The index of the frame, greater than the previous one.
+	 * @param textAreas The text areas of the frame.
+	 * @param detected True if the detection ran on this frame, false if its
+	 *                 text areas are interpolated.
+	 * @throws IOException
+	 */
+	public void write(long frame, Regions textAreas, boolean detected)
+		throws IOException {
+
+		if (closed) {
+			throw new IllegalStateException("index closed");
+		}
+		if (frame < frames) {
+			throw new IllegalArgumentException(
+				"frame " + frame + " written after frame " + (frames - 1)
+			);
+		}
+		while (frames < frame) {
+			writeRecord(new Regions(), false);
+		}
+		writeRecord(textAreas, detected);
+	}
+
+	/**
+	 * Writes the text areas of a frame given by a FrameSampler.
+	 * @throws UncheckedIOException if the frame cannot be written.
+	 */
+	@Override
+	public void frameDone(long frame, Regions textAreas, boolean detected) {
+		try {
+			write(frame, textAreas, detected);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Getter on the number of written frames.
+	 * @return The number of written frames.
+	 */
+	public long getFrames() {
+		return frames;
+	}
+
+	/**
+	 * Writes the offset table and the header, then closes the file. The
+	 * index can only be read once closed.
+	 * @throws IOException
+	 */
+	@Override
+	public void close() throws IOException {
+
+		if (closed) return;
+		closed = true;
+
+		try {
+			while (position % Long.BYTES != 0) {
+				putInt(0);
+			}
+			long tableOffset = position;
+			for (long f = 0; f < frames; ++f) {
+				putLong(offsets[(int) f]);
+			}
+			putLong(tableOffset);
+			flush();
+			writeHeader(tableOffset);
+		} finally {
+			channel.close();
+		}
+	}
+
+	private void writeRecord(Regions textAreas, boolean detected)
+		throws IOException {
+
+		if (frames == offsets.length) {
+			if (frames == Integer.MAX_VALUE - 8) {
+				throw new IOException("too many frames");
+			}
+			offsets = Arrays.copyOf(
+				offsets, (int) Math.min(2 * frames, Integer.MAX_VALUE - 8)
+			);
+		}
+		offsets[(int) frames++] = position;
+
+		putInt(textAreas.size() | (detected ? DETECTED_FLAG : 0));
+		for (int i = 0; i < textAreas.size(); ++i) {
+			putInt(textAreas.getX(i));
+			putInt(textAreas.getY(i));
+			putInt(textAreas.getWidth(i));
+			putInt(textAreas.getHeight(i));
+		}
+	}
+
+	private void writeHeader(long tableOffset) throws IOException {
+
+		ByteBuffer header =
+			ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(MAGIC).putInt(VERSION).putFloat(frameRate).putInt(0)
+			.putLong(frames).putLong(tableOffset).flip();
+		while (header.hasRemaining()) {
+			channel.write(header, header.position());
+		}
+	}
+
+	private void putInt(int value) throws IOException {
+		if (buffer.remaining() < Integer.BYTES) flush();
+		buffer.putInt(value);
+		position += Integer.BYTES;
+	}
+
+	private void putLong(long value) throws IOException {
+		if (buffer.remaining() < Long.BYTES) flush();
+		buffer.putLong(value);
+		position += Long.BYTES;
+	}
+
+	private void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+}
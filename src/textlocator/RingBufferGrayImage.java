@@ -0,0 +1,75 @@
+package textlocator;
+
+/**
+ * Gray image of a fixed width whose rows are pushed one at a time, of which
+ * only the most recent ones are kept in memory.
+ * The height of the image is the number of rows pushed so far. Rows that
+ * have been evicted from the buffer must not be accessed anymore.
+ * @author MX-Futhark
+ */
+class RingBufferGrayImage extends GrayImage {
+
+	private int[][] rows;
+	private int width;
+	private int height;
+
+	/**
+	 * Constructor for an empty ring buffer.
+	 * @param width The width of the image.
+	 * @param capacity The number of rows kept in memory.
+	 */
+	public RingBufferGrayImage(int width, int capacity) {
+		this.rows = new int[capacity][width];
+		this.width = width;
+		this.height = 0;
+	}
+
+	/**
+	 * Getter on the number of rows kept in memory.
+	 * @return The number of rows kept in memory.
+	 */
+	public int getCapacity() {
+		return rows.length;
+	}
+
+	/**
+	 * Appends a row at the bottom of the image, evicting the oldest row if
+	 * the buffer is full.
+	 * @return The array of the new row, to be filled by the caller.
+	 */
+	public int[] pushRow() {
+		int[] row = rows[height % rows.length];
+		++height;
+		return row;
+	}
+
+	/**
+	 * Provides direct access to a row still held in the buffer.
+	 * @param y The Y coordinate of the row.
+	 * @return The array of the row.
+	 */
+	public int[] getRow(int y) {
+		return rows[y % rows.length];
+	}
+
+	@Override
+	public int getHeight() {
+		return height;
+	}
+
+	@Override
+	public int getWidth() {
+		return width;
+	}
+
+	@Override
+	public int getValue(int x, int y) {
+		return rows[y % rows.length][x];
+	}
+
+	@Override
+	public void setValue(int x, int y, int value) {
+		rows[y % rows.length][x] = value;
+	}
+
+}
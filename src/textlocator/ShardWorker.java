@@ -0,0 +1,579 @@
+package textlocator;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.zip.CRC32;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Locates text on the frames of a video split into shards, processed by
+ * independent worker processes on one or several machines sharing a work
+ * directory.
+ * The frames are the image files of a directory, in the order of their
+ * names, e.g. as extracted by a video decoder. The frames from..to of the
+ * job are split into shards of shardSize frames. The first worker writes the
+ * job to JOB_FILE, and the other workers check that they run the same job.
+ *
+ * Workers coordinate through files of the work directory only:
+ *  - shard-N.lock: created to claim shard N, holding the id of its worker,
+ *    and touched while the shard is processed. A lock not touched for
+ *    LEASE_MS milliseconds is left by a dead worker, and another worker
+ *    takes it over.
+ *  - shard-N.WORKER.log: the checkpoint of each worker on shard N, to which
+ *    the text areas of each frame are appended and synced as soon as they
+ *    are found. A worker taking a shard over skips the frames found in all
+ *    the logs of the shard, so no frame is detected again after a failure.
+ *  - shard-N.done: created once all frames of shard N are in its logs.
+ * A lock taken over while its worker is only slow makes both workers
+ * process the shard, each in its own log, which wastes time but gives the
+ * same results. The slow worker neither touches nor deletes the lock of
+ * the new owner, so no third worker claims the shard.
+ *
+ * Once every shard is done, the logs are merged into a result index, see
+ * ResultIndexWriter, frames being numbered from the first image of the
+ * directory.
+ * @author MX-Futhark
+ */
+public class ShardWorker {
+
+	/**
+	 * Name of the file describing the job in the work directory.
+	 */
+	public static final String JOB_FILE = "job.properties";
+
+	/**
+	 * Time after which a shard lock that is not touched is taken over.
+	 */
+	public static final long LEASE_MS = 60000;
+
+	private static final long POLL_MS = 1000;
+	// a log record holds the frame, its text area count and flag, the text
+	// areas and a CRC32 of all that
+	private static final int RECORD_HEADER_SIZE = Long.BYTES + Integer.BYTES;
+
+	private final Path workDir;
+	private final List<Path> frames;
+	private final Properties job;
+	private final long from, to;
+	private final int shardSize;
+	private final int stride;
+	private final DetectorConfig config;
+	private final String workerId;
+	private long lastHeartbeat;
+
+	/**
+	 * Constructor. Creates the job in the work directory if no worker did.
+	 * @param framesDir The directory holding the frames.
+	 * @param workDir The directory shared by the workers.
+	 * @param from The first frame to process.
+	 * @param to The frame after the last one to process, -1 for all frames.
+	 * @param shardSize The number of frames per shard.
+	 * @param stride The base stride of a FrameSampler, see FrameSampler, or
+	 *               1 to detect every frame.
+	 * @param profile The name of the configuration of the detection,
+	 *                "default" or "fast".
+	 * @param frameRate The number of frames per second of the video.
+	 * @throws IOException if the job differs from the one of the work
+	 *         directory.
+	 */
+	public ShardWorker(Path framesDir, Path workDir, long from, long to,
+		int shardSize, int stride, String profile, float frameRate)
+		throws IOException {
+
+		if (shardSize < 1 || stride < 1) {
+			throw new IllegalArgumentException(
+				"invalid shard size or stride: " + shardSize + ", " + stride
+			);
+		}
+
+		this.workDir = workDir;
+		this.frames = listFrames(framesDir);
+		this.from = Math.max(0, from);
+		this.to = to < 0 ? frames.size() : Math.min(to, frames.size());
+		this.shardSize = shardSize;
+		this.stride = stride;
+		this.config = DetectorServer.getConfig(profile);
+		this.workerId = ManagementFactory.getRuntimeMXBean().getName()
+			.replaceAll("[^A-Za-z0-9.-]", "_");
+
+		Properties job = new Properties();
+		job.setProperty("frames", framesDir.toAbsolutePath().toString());
+		job.setProperty("frameCount", String.valueOf(frames.size()));
+		job.setProperty("from", String.valueOf(this.from));
+		job.setProperty("to", String.valueOf(this.to));
+		job.setProperty("shardSize", String.valueOf(shardSize));
+		job.setProperty("stride", String.valueOf(stride));
+		job.setProperty("profile", profile == null ? "default" : profile);
+		job.setProperty(
+			"frameRate", String.format(Locale.ROOT, "%s", frameRate)
+		);
+		this.job = job;
+
+		Files.createDirectories(workDir);
+		checkJob();
+	}
+
+	/**
+	 * Getter on the number of shards of the job.
+	 * @return The number of shards.
+	 */
+	public int getShards() {
+		return (int) ((to - from + shardSize - 1) / shardSize);
+	}
+
+	/**
+	 * Processes shards until they are all done, taking over the shards of
+	 * dead workers.
+	 * @return The number of frames detected by this worker.
+	 * @throws IOException
+	 */
+	public long run() throws IOException {
+
+		long detected = 0;
+		while (true) {
+			boolean pending = false, claimed = false;
+			for (int shard = 0; shard < getShards(); ++shard) {
+				if (Files.exists(getDoneFile(shard))) continue;
+				pending = true;
+				if (claim(shard)) {
+					claimed = true;
+					try {
+						detected += process(shard);
+					} finally {
+						release(shard);
+					}
+				}
+			}
+			if (!pending) {
+				return detected;
+			}
+			if (!claimed) {
+				// other workers own the remaining shards
+				try {
+					Thread.sleep(POLL_MS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("interrupted", e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Tells whether every shard of the job is done.
+	 * @return True if the job is done.
+	 */
+	public boolean isDone() {
+		for (int shard = 0; shard < getShards(); ++shard) {
+			if (!Files.exists(getDoneFile(shard))) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Merges the logs of all shards into a result index. The index is
+	 * written next to the output, then moved to it, so that concurrent merges
+	 * are safe.
+	 * @param output The file of the result index.
+	 * @throws IOException if a shard is not done.
+	 */
+	public void merge(Path output) throws IOException {
+
+		Path tmp = output.resolveSibling(
+			output.getFileName() + "." + workerId + ".tmp"
+		);
+		try (ResultIndexWriter writer = new ResultIndexWriter(
+			tmp, Float.parseFloat(job.getProperty("frameRate")))) {
+
+			for (int shard = 0; shard < getShards(); ++shard) {
+				if (!Files.exists(getDoneFile(shard))) {
+					throw new IOException("shard " + shard + " not done");
+				}
+				Map<Long, int[]> records = readLogs(shard);
+				for (long f = getShardStart(shard); f < getShardEnd(shard);
+					++f) {
+
+					int[] record = records.get(f);
+					if (record == null) {
+						throw new IOException("frame " + f + " missing");
+					}
+					writer.write(
+						f, toRegions(record),
+						(record[0] & ResultIndexWriter.DETECTED_FLAG) != 0
+					);
+				}
+			}
+		}
+		Files.move(
+			tmp, output, StandardCopyOption.REPLACE_EXISTING,
+			StandardCopyOption.ATOMIC_MOVE
+		);
+	}
+
+	// writes the job if no worker did, or checks it is the same
+	private void checkJob() throws IOException {
+
+		Path jobFile = workDir.resolve(JOB_FILE);
+		if (!Files.exists(jobFile)) {
+			Path tmp = workDir.resolve(JOB_FILE + "." + workerId + ".tmp");
+			try (OutputStream out = Files.newOutputStream(tmp)) {
+				job.store(out, "text detection job");
+			}
+			// workers starting together write the same job
+			Files.move(tmp, jobFile, StandardCopyOption.ATOMIC_MOVE);
+		}
+
+		Properties existing = new Properties();
+		try (InputStream in = Files.newInputStream(jobFile)) {
+			existing.load(in);
+		}
+		if (!existing.equals(job)) {
+			throw new IOException(
+				"job " + job + " differs from " + existing + " in " + workDir
+			);
+		}
+	}
+
+	// creates the lock of a shard, or takes it over if it is stale
+	private boolean claim(int shard) throws IOException {
+
+		Path lock = getLockFile(shard);
+		try {
+			createLock(lock);
+		} catch (FileAlreadyExistsException e) {
+			try {
+				if (!isStale(lock) || !removeLock(lock, false)) {
+					return false;
+				}
+				createLock(lock);
+			} catch (NoSuchFileException | FileAlreadyExistsException e2) {
+				return false;
+			}
+		}
+		lastHeartbeat = System.currentTimeMillis();
+
+		// the shard may have been finished in the meantime
+		if (Files.exists(getDoneFile(shard))) {
+			release(shard);
+			return false;
+		}
+		return true;
+	}
+
+	// deletes the lock of a shard unless another worker took it over
+	private void release(int shard) throws IOException {
+		removeLock(getLockFile(shard), true);
+	}
+
+	private void createLock(Path lock) throws IOException {
+		Files.write(
+			lock, workerId.getBytes(StandardCharsets.UTF_8),
+			StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE
+		);
+	}
+
+	// deletes a lock if it is owned by this worker, or if it is stale
+	// otherwise, and tells whether it did; the lock is moved away before it
+	// is checked, so that only one worker can remove it, and a lock created
+	// meanwhile by another worker is put back instead of being deleted
+	private boolean removeLock(Path lock, boolean owned) throws IOException {
+
+		Path moved = lock.resolveSibling(
+			lock.getFileName() + "." + workerId + ".old"
+		);
+		try {
+			Files.move(lock, moved, StandardCopyOption.ATOMIC_MOVE);
+		} catch (NoSuchFileException e) {
+			return false;
+		}
+		if (owned ? isOwned(moved) : isStale(moved)) {
+			Files.delete(moved);
+			return true;
+		}
+		try {
+			Files.move(moved, lock);
+		} catch (FileAlreadyExistsException e) {
+			// replaced meanwhile by a newer lock
+			Files.delete(moved);
+		}
+		return false;
+	}
+
+	private boolean isOwned(Path lock) throws IOException {
+		try {
+			return workerId.equals(new String(
+				Files.readAllBytes(lock), StandardCharsets.UTF_8
+			));
+		} catch (NoSuchFileException e) {
+			return false;
+		}
+	}
+
+	private static boolean isStale(Path lock) throws IOException {
+		return System.currentTimeMillis()
+			- Files.getLastModifiedTime(lock).toMillis() >= LEASE_MS;
+	}
+
+	// detects the frames of a shard that are in none of its logs
+	private long process(int shard) throws IOException {
+
+		long start = getShardStart(shard), end = getShardEnd(shard);
+		BitSet done = new BitSet();
+		for (long f : readLogs(shard).keySet()) {
+			done.set((int) (f - start));
+		}
+
+		Path log = getLogFile(shard, workerId);
+		long detected = 0;
+		try (FileChannel channel = openLog(log)) {
+
+			FrameSampler.FrameListener listener = (f, textAreas, d) -> {
+				try {
+					append(channel, f, textAreas, d);
+					heartbeat(shard);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			};
+
+			FrameSampler sampler = null;
+			for (long f = start; f < end; ++f) {
+				if (done.get((int) (f - start))) {
+					// a run of missing frames ends
+					if (sampler != null) sampler.flush();
+					sampler = null;
+					continue;
+				}
+
+				Path frame = frames.get((int) f);
+				BufferedImage rgbImg = ImageIO.read(frame.toFile());
+				if (rgbImg == null) {
+					throw new IOException("unreadable frame " + frame);
+				}
+				int[] rgbPixels = AwtAdapter.getRgbPixels(rgbImg);
+
+				try {
+					if (stride == 1) {
+						listener.frameDone(
+							f,
+							MultiresolutionTextPositionDetector.apply(
+								rgbPixels, rgbImg.getWidth(),
+								rgbImg.getHeight(), config,
+								CancellationToken.NONE
+							).getRegions(),
+							true
+						);
+						++detected;
+					} else {
+						if (sampler == null) {
+							// the sampler numbers the frames of the run from 0
+							long runStart = f;
+							sampler = new FrameSampler(
+								config, stride,
+								(k, textAreas, d) -> listener.frameDone(
+									runStart + k, textAreas, d
+								)
+							);
+						}
+						long before = sampler.getDetectedFrames();
+						sampler.submit(
+							rgbPixels, rgbImg.getWidth(), rgbImg.getHeight()
+						);
+						detected += sampler.getDetectedFrames() - before;
+					}
+				} catch (UncheckedIOException e) {
+					throw e.getCause();
+				}
+			}
+			if (sampler != null) sampler.flush();
+		}
+
+		try {
+			Files.createFile(getDoneFile(shard));
+		} catch (FileAlreadyExistsException e) {
+			// finished by a worker that took the shard over
+		}
+		return detected;
+	}
+
+	// touches the lock of a shard so that it is not taken over
+	private void heartbeat(int shard) throws IOException {
+		long now = System.currentTimeMillis();
+		if (now - lastHeartbeat > LEASE_MS / 4) {
+			Path lock = getLockFile(shard);
+			// once taken over, both workers finish the shard, and only the
+			// new owner keeps its lock alive
+			if (isOwned(lock)) {
+				try {
+					Files.setLastModifiedTime(lock, FileTime.fromMillis(now));
+				} catch (NoSuchFileException e) {
+					// taken over meanwhile
+				}
+			}
+			lastHeartbeat = now;
+		}
+	}
+
+	// opens a log for appending, dropping a record cut by a crash
+	private static FileChannel openLog(Path log) throws IOException {
+		FileChannel channel = FileChannel.open(
+			log, StandardOpenOption.CREATE, StandardOpenOption.WRITE
+		);
+		channel.truncate(readLog(log, null));
+		channel.position(channel.size());
+		return channel;
+	}
+
+	private static void append(FileChannel channel, long frame,
+		Regions textAreas, boolean detected) throws IOException {
+
+		ByteBuffer record = ByteBuffer.allocate(
+			RECORD_HEADER_SIZE + (4 * textAreas.size() + 1) * Integer.BYTES
+		).order(ByteOrder.LITTLE_ENDIAN);
+		record.putLong(frame);
+		record.putInt(
+			textAreas.size()
+				| (detected ? ResultIndexWriter.DETECTED_FLAG : 0)
+		);
+		for (int i = 0; i < textAreas.size(); ++i) {
+			record.putInt(textAreas.getX(i)).putInt(textAreas.getY(i))
+				.putInt(textAreas.getWidth(i)).putInt(textAreas.getHeight(i));
+		}
+		CRC32 crc = new CRC32();
+		crc.update(record.array(), 0, record.position());
+		record.putInt((int) crc.getValue()).flip();
+
+		while (record.hasRemaining()) {
+			channel.write(record);
+		}
+		// the frame is checkpointed once on disk
+		channel.force(false);
+	}
+
+	// reads the records of all the logs of a shard, by frame
+	private Map<Long, int[]> readLogs(int shard) throws IOException {
+		Map<Long, int[]> records = new HashMap<>();
+		try (DirectoryStream<Path> logs = Files.newDirectoryStream(
+			workDir, String.format("shard-%05d.*.log", shard))) {
+
+			for (Path log : logs) {
+				readLog(log, records);
+			}
+		}
+		return records;
+	}
+
+	// reads the valid records of a log, each one being stored as its count
+	// and flag followed by its text areas, and gives the length of the valid
+	// part of the log
+	private static long readLog(Path log, Map<Long, int[]> records)
+		throws IOException {
+
+		ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(log))
+			.order(ByteOrder.LITTLE_ENDIAN);
+		CRC32 crc = new CRC32();
+		int valid = 0;
+
+		while (bytes.remaining() >= RECORD_HEADER_SIZE + Integer.BYTES) {
+			int start = bytes.position();
+			long frame = bytes.getLong();
+			int countAndFlag = bytes.getInt();
+			int count = countAndFlag & ~ResultIndexWriter.DETECTED_FLAG;
+			if (bytes.remaining() < (4L * count + 1) * Integer.BYTES) break;
+
+			int[] record = new int[1 + 4 * count];
+			record[0] = countAndFlag;
+			for (int i = 1; i < record.length; ++i) {
+				record[i] = bytes.getInt();
+			}
+			crc.reset();
+			crc.update(bytes.array(), start, bytes.position() - start);
+			if (bytes.getInt() != (int) crc.getValue()) break;
+
+			if (records != null) records.put(frame, record);
+			valid = bytes.position();
+		}
+		return valid;
+	}
+
+	private static Regions toRegions(int[] record) {
+		int count = record[0] & ~ResultIndexWriter.DETECTED_FLAG;
+		Regions res = new Regions(count);
+		for (int i = 0; i < count; ++i) {
+			res.add(
+				record[1 + 4 * i], record[2 + 4 * i], record[3 + 4 * i],
+				record[4 + 4 * i]
+			);
+		}
+		return res;
+	}
+
+	private static List<Path> listFrames(Path framesDir) throws IOException {
+		List<String> suffixes =
+			Arrays.asList(ImageIO.getReaderFileSuffixes());
+		List<Path> res = new ArrayList<>();
+		try (DirectoryStream<Path> files =
+			Files.newDirectoryStream(framesDir)) {
+
+			for (Path file : files) {
+				String name = file.getFileName().toString();
+				int dot = name.lastIndexOf('.');
+				if (dot >= 0 && suffixes.contains(
+					name.substring(dot + 1).toLowerCase(Locale.ROOT))) {
+
+					res.add(file);
+				}
+			}
+		}
+		res.sort(null);
+		return res;
+	}
+
+	private long getShardStart(int shard) {
+		return from + (long) shard * shardSize;
+	}
+
+	private long getShardEnd(int shard) {
+		return Math.min(getShardStart(shard) + shardSize, to);
+	}
+
+	private Path getLockFile(int shard) {
+		return workDir.resolve(String.format("shard-%05d.lock", shard));
+	}
+
+	private Path getDoneFile(int shard) {
+		return workDir.resolve(String.format("shard-%05d.done", shard));
+	}
+
+	private Path getLogFile(int shard, String worker) {
+		return workDir.resolve(
+			String.format("shard-%05d.%s.log", shard, worker)
+		);
+	}
+
+}
@@ -51,45 +51,71 @@ class Sobel {
 		return res;
 	}
 
-	public static GrayImage convolve(GrayImage img, int direction, int mode) {
-
-		GrayImage res = new GrayImage(img.getWidth(), img.getHeight());
-
-		float[][] filter = null;
+	private static float[][] getFilter(int direction) {
 		switch (direction) {
 		case HORIZONTAL:
-			filter = HORIZONTAL_A;
-			break;
+			return HORIZONTAL_A;
 		case VERTICAL:
-			filter = VERTICAL_A;
-			break;
+			return VERTICAL_A;
 		case LDIAGONAL:
-			filter = LDIAGONAL_A;
-			break;
+			return LDIAGONAL_A;
 		case RDIAGONAL:
-			filter = RDIAGONAL_A;
-			break;
+			return RDIAGONAL_A;
 		}
+		return null;
+	}
+
+	public static GrayImage convolve(GrayImage img, int direction, int mode) {
+		return convolve(img, direction, mode, CancellationToken.NONE);
+	}
+
+	public static GrayImage convolve(GrayImage img, int direction, int mode,
+		CancellationToken token) {
+
+		GrayImage res =
+			img.createCompatibleImage(img.getWidth(), img.getHeight());
+		int[] row = new int[img.getWidth()];
 
 		for (int j = 0; j < img.getHeight(); ++j) {
+			token.check();
+			convolveRow(img, j, direction, mode, row);
 			for (int i = 0; i < img.getWidth(); ++i) {
-				int value = convolveLocal(img, i, j, filter);
-				switch (mode) {
-				case ABS:
-					value = Math.abs(value);
-					break;
-				case NORMALIZED:
-					value = (value + 255 * 4) / 8;
-					break;
-				case ABS | NORMALIZED:
-					value = Math.abs(value) / 4;
-					break;
-				}
-				res.setValue(i, j, value);
+				res.setValue(i, j, row[i]);
 			}
 		}
 
 		return res;
 	}
 
+	/**
+	 * Applies the Sobel filter to a single row of an image. Only the row and
+	 * its two neighbours are read, which allows streaming images row by row.
+	 * @param img The image to filter.
+	 * @param y The Y coordinate of the row.
+	 * @param direction The direction of the filter.
+	 * @param mode The post-processing applied to the response.
+	 * @param res The array receiving the filtered row.
+	 */
+	public static void convolveRow(GrayImage img, int y, int direction,
+		int mode, int[] res) {
+
+		float[][] filter = getFilter(direction);
+
+		for (int i = 0; i < img.getWidth(); ++i) {
+			int value = convolveLocal(img, i, y, filter);
+			switch (mode) {
+			case ABS:
+				value = Math.abs(value);
+				break;
+			case NORMALIZED:
+				value = (value + 255 * 4) / 8;
+				break;
+			case ABS | NORMALIZED:
+				value = Math.abs(value) / 4;
+				break;
+			}
+			res[i] = value;
+		}
+	}
+
 }
@@ -0,0 +1,242 @@
+package textlocator;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Supplier;
+
+/**
+ * Keeps the results of the first stages of the pipeline, which do not
+ * depend on the parameters of region detection, so that detections on the
+ * same images with other parameters, e.g. during a parameter sweep, only
+ * run the later stages again. See TextPositionDetector.apply(BufferedImage,
+ * DetectorConfig, StageCache, CancellationToken).
+ * Results are keyed by the identity of the image, the stage and the fields
+ * of the configuration the stage depends on:
+ *  - GRAY: the gray image, depending on the image only,
+ *  - GLOBAL_EDGES: the edge map after global thresholding, depending on the
+ *    Sobel filters, the chroma edges and the edge factors.
+ * The least recently used results are evicted once the cached images take
+ * more than the maximum size. The images are only weakly referenced, as the
+ * keys of a WeakHashMap, so the cache does not keep them alive and their
+ * results are dropped once they are collected: the maximum size bounds all
+ * the memory retained by the cache. An image must not be modified while its
+ * results are cached, and the cached images are shared, so they must not
+ * be modified either.
+ * Instances can be used by several threads at once. Concurrent misses on
+ * the same key may compute the result several times.
+ * @author MX-Futhark
+ */
+public class StageCache {
+
+	/**
+	 * Stages of the pipeline whose results are cached.
+	 * @author MX-Futhark
+	 */
+	public enum Stage {
+		GRAY, GLOBAL_EDGES
+	}
+
+	/**
+	 * Key of a cached result, weakly referencing the image, which is compared
+	 * by identity. Once the image is collected, the key is only equal to
+	 * itself, and is enqueued to be removed.
+	 * @author MX-Futhark
+	 */
+	private static final class Key extends WeakReference<Object> {
+
+		private final Stage stage;
+		private final List<Object> params;
+		private final int hash;
+
+		public Key(Object image, Stage stage, List<Object> params,
+			ReferenceQueue<Object> queue) {
+
+			super(image, queue);
+			this.stage = stage;
+			this.params = params;
+			this.hash =
+				Objects.hash(System.identityHashCode(image), stage, params);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) return true;
+			if (!(o instanceof Key)) return false;
+			Key other = (Key) o;
+			Object image = get();
+			return image != null && image == other.get()
+				&& stage == other.stage && params.equals(other.params);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+
+	private final long maxBytes;
+	// in access order, the least recently used first
+	private final LinkedHashMap<Key, GrayImage> entries =
+		new LinkedHashMap<>(16, 0.75f, true);
+	// keys whose image was collected
+	private final ReferenceQueue<Object> collected = new ReferenceQueue<>();
+	private long bytes = 0;
+	private long hits = 0, misses = 0;
+
+	/**
+	 * Constructor.
+	 * @param maxBytes The maximum size of the cached images, in bytes.
+	 */
+	public StageCache(long maxBytes) {
+		if (maxBytes <= 0) {
+			throw new IllegalArgumentException(
+				"invalid maximum size: " + maxBytes
+			);
+		}
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Provides the gray image of an image, computing it on a miss.
+	 * @param image The image, compared by identity.
+	 * @param compute Computes the gray image.
+	 * @return The gray image, which must not be modified.
+	 */
+	GrayImage getGrayImage(Object image, Supplier<GrayImage> compute) {
+		return get(
+			new Key(image, Stage.GRAY, Collections.emptyList(), collected),
+			compute
+		);
+	}
+
+	/**
+	 * Provides the edge map of an image after global thresholding, computing
+	 * it on a miss.
+	 * @param image The image, compared by identity.
+	 * @param config The configuration of the detection.
+	 * @param compute Computes the edge map.
+	 * @return The edge map, which must not be modified.
+	 */
+	GrayImage getGlobalEdgeMap(Object image, DetectorConfig config,
+		Supplier<GrayImage> compute) {
+
+		return get(
+			new Key(
+				image, Stage.GLOBAL_EDGES, config.getGlobalThresholdingKey(),
+				collected
+			),
+			compute
+		);
+	}
+
+	/**
+	 * Removes the cached results of an image, e.g. before modifying it.
+	 * @param image The image, compared by identity.
+	 */
+	public synchronized void invalidate(Object image) {
+		Iterator<Map.Entry<Key, GrayImage>> it = entries.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<Key, GrayImage> entry = it.next();
+			if (entry.getKey().get() == image) {
+				bytes -= getBytes(entry.getValue());
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Removes all cached results.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		bytes = 0;
+		while (collected.poll() != null) {
+			// already removed
+		}
+	}
+
+	/**
+	 * Getter on the size of the cached images.
+	 * @return The size of the cached images, in bytes.
+	 */
+	public synchronized long getBytes() {
+		removeCollected();
+		return bytes;
+	}
+
+	/**
+	 * Getter on the number of results found in the cache.
+	 * @return The number of hits.
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Getter on the number of results computed because they were not in the
+	 * cache.
+	 * @return The number of misses.
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	// provides a cached result, or computes it outside of the lock and
+	// caches it unless it is larger than the cache
+	private GrayImage get(Key key, Supplier<GrayImage> compute) {
+
+		synchronized (this) {
+			removeCollected();
+			GrayImage res = entries.get(key);
+			if (res != null) {
+				++hits;
+				return res;
+			}
+			++misses;
+		}
+
+		GrayImage res = compute.get();
+		long size = getBytes(res);
+		if (size > maxBytes) return res;
+
+		synchronized (this) {
+			GrayImage previous = entries.put(key, res);
+			if (previous != null) {
+				bytes -= getBytes(previous);
+			}
+			bytes += size;
+
+			Iterator<GrayImage> it = entries.values().iterator();
+			while (bytes > maxBytes) {
+				bytes -= getBytes(it.next());
+				it.remove();
+			}
+		}
+		return res;
+	}
+
+	// removes the results of the images collected since the last call
+	private void removeCollected() {
+		Reference<?> key;
+		while ((key = collected.poll()) != null) {
+			GrayImage res = entries.remove(key);
+			if (res != null) {
+				bytes -= getBytes(res);
+			}
+		}
+	}
+
+	private static long getBytes(GrayImage img) {
+		return AdmissionController.getImageBytes(
+			img.getWidth(), img.getHeight()
+		);
+	}
+
+}
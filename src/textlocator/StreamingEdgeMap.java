@@ -0,0 +1,222 @@
+package textlocator;
+
+import java.util.Arrays;
+
+/**
+ * Computes the edge map of an image row by row, see section IV.B.
+ * Rows go through gray conversion, the Sobel filters, global thresholding
+ * and local thresholding as soon as enough input rows are available, using
+ * ring buffers that only hold the rows each stage depends on:
+ *  - 3 gray rows for the Sobel filters,
+ *  - WINDOW_SIZE_FACTOR * KERNEL_SIZE edge rows for local thresholding.
+ * The resulting rows are equal to those of
+ * EdgeMap.applyLocalThresholding(EdgeMap.applyGlobalThresholding(img)) and
+ * are handed to a listener, while the projections of the whole edge map are
+ * accumulated on the fly.
+ * @author MX-Futhark
+ */
+class StreamingEdgeMap {
+
+	/**
+	 * Receives the rows of the edge map after local thresholding.
+	 * @author MX-Futhark
+	 */
+	public interface RowListener {
+
+		/**
+		 * Called once per row, in order.
+		 * @param y The Y coordinate of the row.
+		 * @param row The values of the row. The array is reused afterwards.
+		 */
+		void rowReady(int y, int[] row);
+	}
+
+	private static final int SOBEL_DIRECTIONS = 4;
+
+	private final GrayImage.DesaturationMethod method;
+	private final RowListener listener;
+
+	private final RingBufferGrayImage grayRows;
+	private final RingBufferGrayImage edgeRows;
+	private final int[][] sobelRows;
+	private final int[] responses = new int[SOBEL_DIRECTIONS];
+	private final int[][] outputRows;
+
+	// next row of the global edge map to compute
+	private int nextEdgeRow = 0;
+	// next row of the local thresholded edge map to compute
+	private int nextOutputRow = 0;
+	private boolean finished = false;
+
+	private int[] horizontalProjection = new int[EdgeMap.KERNEL_SIZE];
+	private final int[] verticalProjection;
+
+	/**
+	 * Constructor.
+	 * @param width The width of the image.
+	 * @param method The desaturation method applied to pushed RGB rows.
+	 * @param listener The listener to the rows of the resulting edge map, can
+	 *                 be null if only the projections are needed.
+	 */
+	public StreamingEdgeMap(int width, GrayImage.DesaturationMethod method,
+		RowListener listener) {
+
+		this.method = method;
+		this.listener = listener;
+		this.grayRows = new RingBufferGrayImage(width, 3);
+		this.edgeRows = new RingBufferGrayImage(
+			width, EdgeMap.WINDOW_SIZE_FACTOR * EdgeMap.KERNEL_SIZE
+		);
+		this.sobelRows = new int[SOBEL_DIRECTIONS][width];
+		this.outputRows = new int[EdgeMap.KERNEL_SIZE][width];
+		this.verticalProjection = new int[width];
+	}
+
+	/**
+	 * Pushes the next row of the RGB image.
+	 * @param rgbRow The row of RGB pixels.
+	 */
+	public void pushRgbRow(int[] rgbRow) {
+		checkNotFinished();
+		int[] row = grayRows.pushRow();
+		for (int i = 0; i < row.length; ++i) {
+			row[i] = GrayImage.desaturate(rgbRow[i], method);
+		}
+		advance();
+	}
+
+	/**
+	 * Pushes the next row of an image already in gray.
+	 * @param grayRow The row of gray pixels.
+	 */
+	public void pushGrayRow(int[] grayRow) {
+		checkNotFinished();
+		System.arraycopy(grayRow, 0, grayRows.pushRow(), 0, grayRow.length);
+		advance();
+	}
+
+	/**
+	 * Signals that all rows have been pushed and flushes the remaining rows.
+	 */
+	public void finish() {
+		checkNotFinished();
+		finished = true;
+		advance();
+	}
+
+	/**
+	 * Getter on the number of rows of the edge map emitted so far.
+	 * @return The number of rows of the edge map emitted so far.
+	 */
+	public int getEmittedRows() {
+		return nextOutputRow;
+	}
+
+	/**
+	 * Provides the sum of each row of the edge map emitted so far.
+	 * @return The horizontal projection of the edge map.
+	 */
+	public int[] getHorizontalProjection() {
+		return Arrays.copyOf(horizontalProjection, nextOutputRow);
+	}
+
+	/**
+	 * Provides the sum of each column of the edge map emitted so far.
+	 * @return The vertical projection of the edge map.
+	 */
+	public int[] getVerticalProjection() {
+		return verticalProjection.clone();
+	}
+
+	private void checkNotFinished() {
+		if (finished) {
+			throw new IllegalStateException("stream already finished");
+		}
+	}
+
+	// runs every stage as far as the available rows allow
+	private void advance() {
+
+		// the Sobel filters need the next gray row, or the end of the image
+		while (nextEdgeRow < grayRows.getHeight() - 1
+			|| (finished && nextEdgeRow < grayRows.getHeight())) {
+
+			computeEdgeRow(nextEdgeRow);
+			++nextEdgeRow;
+		}
+
+		// local thresholding needs the rows of the whole window below a kernel
+		int winOffset = EdgeMap.KERNEL_SIZE * (EdgeMap.WINDOW_SIZE_FACTOR / 2);
+		while (nextOutputRow < edgeRows.getHeight()
+			&& (finished || nextOutputRow + EdgeMap.KERNEL_SIZE + winOffset
+				<= edgeRows.getHeight())) {
+
+			computeOutputRows(nextOutputRow);
+		}
+	}
+
+	private void computeEdgeRow(int y) {
+
+		for (int s = 0; s < SOBEL_DIRECTIONS; ++s) {
+			Sobel.convolveRow(
+				grayRows, y, s, Sobel.ABS | Sobel.NORMALIZED, sobelRows[s]
+			);
+		}
+
+		int[] row = edgeRows.pushRow();
+		for (int i = 0; i < row.length; ++i) {
+			for (int s = 0; s < SOBEL_DIRECTIONS; ++s) {
+				responses[s] = sobelRows[s][i];
+			}
+			row[i] = EdgeMap.getGlobalEdgeValue(responses);
+		}
+	}
+
+	// same as EdgeMap.applyLocalThresholding, for one row of kernels
+	private void computeOutputRows(int yStart) {
+
+		int width = edgeRows.getWidth(),
+			maxY = Math.min(yStart + EdgeMap.KERNEL_SIZE, edgeRows.getHeight());
+
+		for (int i = 0; i < width; i += EdgeMap.KERNEL_SIZE) {
+
+			int kernelThreshold =
+				EdgeMap.getKernelThreshold(edgeRows, i, yStart);
+
+			int maxX = Math.min(i + EdgeMap.KERNEL_SIZE, width);
+
+			for (int l = yStart; l < maxY; ++l) {
+				for (int k = i; k < maxX; ++k) {
+					int value = edgeRows.getValue(k, l);
+					outputRows[l - yStart][k] =
+						value < kernelThreshold ? 0 : value;
+				}
+			}
+		}
+
+		for (int l = yStart; l < maxY; ++l) {
+			emitRow(l, outputRows[l - yStart]);
+		}
+	}
+
+	private void emitRow(int y, int[] row) {
+
+		if (y >= horizontalProjection.length) {
+			horizontalProjection =
+				Arrays.copyOf(horizontalProjection, 2 * y);
+		}
+
+		int total = 0;
+		for (int i = 0; i < row.length; ++i) {
+			total += row[i];
+			verticalProjection[i] += row[i];
+		}
+		horizontalProjection[y] = total;
+		nextOutputRow = y + 1;
+
+		if (listener != null) {
+			listener.rowReady(y, row);
+		}
+	}
+
+}
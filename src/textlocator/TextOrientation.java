@@ -0,0 +1,11 @@
+package textlocator;
+
+/**
+ * Determines the direction of the text lines to look for.
+ * Vertical text is found by running region detection on the transposed edge
+ * map, so both orientations share the edge maps of every pyramid level.
+ * @author MX-Futhark
+ */
+public enum TextOrientation {
+	HORIZONTAL, VERTICAL, BOTH
+}
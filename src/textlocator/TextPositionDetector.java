@@ -1,25 +1,27 @@
 package textlocator;
 
-import java.awt.Color;
-import java.awt.Graphics2D;
-import java.awt.Image;
 import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Locates text on an image.
  * Based on Michael R. Lyu, Jiqiang Song and Min Cai's "A comprehensive method
  *   for multilingual video text detection, localization and extraction".
  * The extraction part is left out.
+ * This class adapts AWT images to MultiresolutionTextPositionDetector, which
+ * does the actual work.
  * @author MX-Futhark
  */
 public class TextPositionDetector {
 
 	/**
-	 * Number of image resolutions to work with.
+	 * Number of image resolutions to work with in the default schedule.
 	 */
 	public static final int ITERATIONS_NUMBER = 2;
 
@@ -32,120 +34,307 @@ public class TextPositionDetector {
 	public static List<Rectangle> apply(BufferedImage rgbImg)
 		throws IOException {
 
-		ImageDebug.print(rgbImg, "init");
-
-		// global thresholding
-		GrayImage grayImg =
-			new GrayImage(rgbImg, GrayImage.DesaturationMethod.LUMINANCE);
-		ImageDebug.print(grayImg, "gray");
-		GrayImage edges = EdgeMap.applyGlobalThresholding(grayImg);
-		List<Rectangle> allTextAreas = new LinkedList<>();
-
-		for (int i = 1; i <= ITERATIONS_NUMBER; ++i) {
-
-			// resize edge map
-			BufferedImage initialEdgeMap = edges.toBufferedImage();
-			hideFoundTextAreas(initialEdgeMap, allTextAreas);
-			BufferedImage resizedEdgeMap = resizeEdgeMap(initialEdgeMap, i);
-			ImageDebug.print(resizedEdgeMap, String.format("edges_A_%02d", i));
-
-			// local thresholding
-			GrayImage newEdges = new GrayImage(resizedEdgeMap);
-			GrayImage postLocalThresholdMap =
-				EdgeMap.applyLocalThresholding(newEdges);
-			ImageDebug.print(postLocalThresholdMap,
-				String.format("edges_B_%02d", i));
-
-			// text recovery
-			newEdges = postLocalThresholdMap;
-				EdgeMap.applyTextRecovery(newEdges, postLocalThresholdMap);
-			BufferedImage newEdgesBI = newEdges.toBufferedImage();
-			ImageDebug.print(newEdgesBI, String.format("edges_C_%02d", i));
-
-			// region detection
-			List<Rectangle> textAreas =
-				UniresolutionTextPositionDetector.getRegions(newEdges);
-			allTextAreas.addAll(resizeTextAreas(textAreas, i));
-
-			drawRectangles(newEdgesBI, textAreas,
-				Color.YELLOW, String.format("areas_%02d", i));
-		}
+		return apply(rgbImg, PyramidSchedule.DEFAULT);
+	}
 
-		drawRectangles(rgbImg, allTextAreas, Color.MAGENTA, "result");
+	/**
+	 * Applies the full multiresolution pipeline with the given resolutions.
+	 * @param rgbImg The input image in which to locate text.
+	 * @param schedule The resolutions to work with.
+	 * @return All found text areas.
+	 * @throws IOException
+	 */
+	public static List<Rectangle> apply(BufferedImage rgbImg,
+		PyramidSchedule schedule) throws IOException {
 
-		return allTextAreas;
+		return apply(rgbImg, schedule, CancellationToken.NONE).getTextAreas();
 	}
 
-	// draws the bounds of text areas for debugging purpose
-	private static void drawRectangles(BufferedImage img,
-		List<Rectangle> rectangles, Color c, String imgName)
-		throws IOException {
+	/**
+	 * Applies the full multiresolution pipeline until it ends or the token is
+	 * cancelled.
+	 * @param rgbImg The input image in which to locate text.
+	 * @param token The token to stop the detection, e.g. after a deadline.
+	 * @return The text areas found, possibly partial.
+	 * @throws IOException
+	 */
+	public static DetectionResult apply(BufferedImage rgbImg,
+		CancellationToken token) throws IOException {
 
-		Graphics2D graph = img.createGraphics();
-		graph.setColor(c);
+		return apply(rgbImg, PyramidSchedule.DEFAULT, token);
+	}
 
-		for (Rectangle rectangle : rectangles) {
-			graph.draw(rectangle);
-		}
+	/**
+	 * Applies the full multiresolution pipeline with the given resolutions
+	 * until it ends or the token is cancelled. Once cancelled, the remaining
+	 * levels are skipped and the text areas found so far are returned.
+	 * @param rgbImg The input image in which to locate text.
+	 * @param schedule The resolutions to work with.
+	 * @param token The token to stop the detection, e.g. after a deadline.
+	 * @return The text areas found, possibly partial.
+	 * @throws IOException
+	 */
+	public static DetectionResult apply(BufferedImage rgbImg,
+		PyramidSchedule schedule, CancellationToken token)
+		throws IOException {
 
-		graph.dispose();
-		ImageDebug.print(img, imgName);
+		return apply(rgbImg, schedule, TextOrientation.HORIZONTAL, token);
 	}
 
-	// resize the edge map following the function f(l) = l
-	// see section IV.A
-	// TODO: this function should be configurable
-	private static BufferedImage resizeEdgeMap(BufferedImage edgeMap,
-		int scaleDownFactor) {
+	/**
+	 * Applies the full multiresolution pipeline, looking for text in the
+	 * given orientation.
+	 * @param rgbImg The input image in which to locate text.
+	 * @param orientation The orientation of the text to look for.
+	 * @return All found text areas.
+	 * @throws IOException
+	 */
+	public static List<Rectangle> apply(BufferedImage rgbImg,
+		TextOrientation orientation) throws IOException {
 
-		int scaleX = edgeMap.getWidth() / scaleDownFactor,
-			scaleY = edgeMap.getHeight() / scaleDownFactor;
+		return apply(
+			rgbImg, PyramidSchedule.DEFAULT, orientation,
+			CancellationToken.NONE
+		).getTextAreas();
+	}
 
-		Image img = edgeMap.getScaledInstance(
-			scaleX, scaleY, Image.SCALE_AREA_AVERAGING
+	/**
+	 * Applies the full multiresolution pipeline with the given resolutions,
+	 * looking for text in the given orientation, until it ends or the token
+	 * is cancelled. With TextOrientation.BOTH, both orientations are looked
+	 * for concurrently on the same edge maps, and a text area overlapping a
+	 * larger one of the other orientation is dropped.
+	 * @param rgbImg The input image in which to locate text.
+	 * @param schedule The resolutions to work with.
+	 * @param orientation The orientation of the text to look for.
+	 * @param token The token to stop the detection, e.g. after a deadline.
+	 * @return The text areas found, possibly partial.
+	 * @throws IOException
+	 */
+	public static DetectionResult apply(BufferedImage rgbImg,
+		PyramidSchedule schedule, TextOrientation orientation,
+		CancellationToken token) throws IOException {
+
+		return apply(
+			rgbImg,
+			DetectorConfig.DEFAULT.withSchedule(schedule)
+				.withOrientation(orientation),
+			token
 		);
+	}
 
-		BufferedImage res =
-			new BufferedImage(scaleX, scaleY, BufferedImage.TYPE_INT_RGB);
+	/**
+	 * Applies the full multiresolution pipeline with the given configuration
+	 * until it ends or the token is cancelled. Detections with different
+	 * configurations can run concurrently, e.g. DetectorConfig.FAST for
+	 * real-time images and DetectorConfig.DEFAULT for the others.
+	 * @param rgbImg The input image in which to locate text.
+	 * @param config The configuration of the detection.
+	 * @param token The token to stop the detection, e.g. after a deadline.
+	 * @return The text areas found, possibly partial.
+	 * @throws IOException
+	 */
+	public static DetectionResult apply(BufferedImage rgbImg,
+		DetectorConfig config, CancellationToken token) throws IOException {
+
+		ImageDebug.print(rgbImg, "init");
 
-		res.getGraphics().drawImage(img, 0, 0 , null);
+		// the chroma edges are computed from the color pixels
+		DetectionResult res = config.hasChromaEdges()
+			? MultiresolutionTextPositionDetector.detect(
+				AwtAdapter.getRgbPixels(rgbImg), rgbImg.getWidth(),
+				rgbImg.getHeight(), config, null, token
+			)
+			: MultiresolutionTextPositionDetector.detect(
+				AwtAdapter.toGrayImage(
+					rgbImg, GrayImage.DesaturationMethod.LUMINANCE
+				),
+				config, null, token
+			);
+
+		ImageDebug.print(rgbImg, res.getRegions(), "result");
 
 		return res;
 	}
 
-	// removes (supposed) text from the image to avoid detecting it again at
-	// lower resolutions
-	private static void hideFoundTextAreas(BufferedImage edgeMap,
-		List<Rectangle> textAreas) {
-
-		Graphics2D graph = edgeMap.createGraphics();
-		graph.setColor(Color.BLACK);
+	/**
+	 * Applies the full multiresolution pipeline with the given configuration,
+	 * taking the gray image and the global edge map from a cache when a
+	 * detection on the same image already computed them, e.g. with other
+	 * region detection parameters. See apply(BufferedImage, DetectorConfig,
+	 * CancellationToken).
+	 * @param rgbImg The input image in which to locate text. It must not be
+	 *               modified while its results are cached.
+	 * @param config The configuration of the detection.
+	 * @param cache The cache of the first stages of the pipeline.
+	 * @param token The token to stop the detection, e.g. after a deadline.
+	 * @return The text areas found, possibly partial.
+	 * @throws IOException
+	 */
+	public static DetectionResult apply(BufferedImage rgbImg,
+		DetectorConfig config, StageCache cache, CancellationToken token)
+		throws IOException {
 
-		for (Rectangle textArea : textAreas) {
-			graph.fill(textArea);
+		GrayImage edges;
+		try {
+			edges = cache.getGlobalEdgeMap(rgbImg, config, () ->
+				config.hasChromaEdges()
+					? EdgeMap.applyGlobalThresholding(
+						AwtAdapter.getRgbPixels(rgbImg), rgbImg.getWidth(),
+						rgbImg.getHeight(), config, token
+					)
+					: EdgeMap.applyGlobalThresholding(
+						cache.getGrayImage(rgbImg, () -> AwtAdapter.toGrayImage(
+							rgbImg, GrayImage.DesaturationMethod.LUMINANCE
+						)),
+						config, token
+					)
+			);
+		} catch (CancellationException e) {
+			return new DetectionResult(new Regions(), true);
 		}
 
-		graph.dispose();
+		DetectionResult res = MultiresolutionTextPositionDetector
+			.detectOnEdgeMap(edges, config, null, token);
+
+		ImageDebug.print(rgbImg, res.getRegions(), "result");
+
+		return res;
 	}
 
-	// resizes the text areas to match the resolution of the original image
-	private static List<Rectangle> resizeTextAreas(List<Rectangle> textAreas,
-		int scaleUpFactor) {
+	/**
+	 * Applies the full multiresolution pipeline asynchronously on the common
+	 * pool. See applyAsync(BufferedImage, PyramidSchedule, Executor).
+	 * @param rgbImg The input image in which to locate text.
+	 * @return The publisher of the text areas of each level.
+	 */
+	public static Flow.Publisher<LevelResult> applyAsync(
+		BufferedImage rgbImg) {
 
-		List<Rectangle> res = new LinkedList<>();
+		return applyAsync(
+			rgbImg, PyramidSchedule.DEFAULT, ForkJoinPool.commonPool()
+		);
+	}
 
-		for (Rectangle textArea : textAreas) {
+	/**
+	 * Applies the full multiresolution pipeline asynchronously. Each
+	 * subscriber starts its own detection on the executor and receives the
+	 * text areas of each level as soon as the level is done, so the first
+	 * ones come after the cost of the first level only. A completion or
+	 * error signal follows the last level. The detection stops once the
+	 * subscription is cancelled.
+	 * Unlike apply, near-duplicate text areas of different levels are not
+	 * merged.
+	 * @param rgbImg The input image in which to locate text. It is converted
+	 *               before returning, so it can be modified afterwards.
+	 * @param schedule The resolutions to work with.
+	 * @param executor The executor running the detections.
+	 * @return The publisher of the text areas of each level.
+	 */
+	public static Flow.Publisher<LevelResult> applyAsync(
+		BufferedImage rgbImg, PyramidSchedule schedule, Executor executor) {
+
+		return new DetectionPublisher(
+			AwtAdapter.toGrayImage(
+				rgbImg, GrayImage.DesaturationMethod.LUMINANCE
+			),
+			DetectorConfig.DEFAULT.withSchedule(schedule), executor
+		);
+	}
 
-			res.add(new Rectangle(
-				(int) textArea.getX() * scaleUpFactor,
-				(int) textArea.getY() * scaleUpFactor,
-				(int) textArea.getWidth() * scaleUpFactor,
-				(int) textArea.getHeight() * scaleUpFactor
-			));
+	/**
+	 * Applies the full multiresolution pipeline inside areas of interest only.
+	 * See apply(BufferedImage, List, PyramidSchedule, CancellationToken).
+	 * @param rgbImg The input image in which to locate text.
+	 * @param areasOfInterest The areas where text is searched.
+	 * @return All found text areas, in the coordinates of the input image.
+	 * @throws IOException
+	 */
+	public static List<Rectangle> apply(BufferedImage rgbImg,
+		List<Rectangle> areasOfInterest) throws IOException {
 
-		}
+		return apply(rgbImg, areasOfInterest, PyramidSchedule.DEFAULT);
+	}
+
+	/**
+	 * Applies the full multiresolution pipeline inside areas of interest only.
+	 * See apply(BufferedImage, List, PyramidSchedule, CancellationToken).
+	 * @param rgbImg The input image in which to locate text.
+	 * @param areasOfInterest The areas where text is searched.
+	 * @param schedule The resolutions to work with.
+	 * @return All found text areas, in the coordinates of the input image.
+	 * @throws IOException
+	 */
+	public static List<Rectangle> apply(BufferedImage rgbImg,
+		List<Rectangle> areasOfInterest, PyramidSchedule schedule)
+		throws IOException {
+
+		return apply(
+			rgbImg, areasOfInterest, schedule, CancellationToken.NONE
+		).getTextAreas();
+	}
+
+	/**
+	 * Applies the full multiresolution pipeline inside areas of interest only.
+	 * Overlapping areas are merged into their bounding box, and each merged
+	 * area is processed along with the context read by the Sobel filters and
+	 * the local thresholding windows, so the cost is proportional to the
+	 * total size of the areas. The text areas found are the same as when
+	 * processing the whole image while only looking for text inside the
+	 * merged areas, unless the schedule skips levels adaptively. See
+	 * MultiresolutionTextPositionDetector.detect(GrayImage, Regions,
+	 * DetectorConfig, CancellationToken).
+	 * @param rgbImg The input image in which to locate text.
+	 * @param areasOfInterest The areas where text is searched.
+	 * @param schedule The resolutions to work with.
+	 * @param token The token to stop the detection, e.g. after a deadline.
+	 * @return The text areas found, in the coordinates of the input image,
+	 *         possibly partial.
+	 * @throws IOException
+	 */
+	public static DetectionResult apply(BufferedImage rgbImg,
+		List<Rectangle> areasOfInterest, PyramidSchedule schedule,
+		CancellationToken token) throws IOException {
+
+		// only the pixels around the areas are converted
+		DetectionResult res = MultiresolutionTextPositionDetector.detect(
+			AwtAdapter.asGrayImage(
+				rgbImg, GrayImage.DesaturationMethod.LUMINANCE
+			),
+			AwtAdapter.toRegions(areasOfInterest), schedule, token
+		);
+
+		ImageDebug.print(rgbImg, res.getRegions(), "result");
 
 		return res;
 	}
 
+	/**
+	 * Applies the multiresolution pipeline in two steps: the image is first
+	 * screened at a low resolution to find candidate text areas, then only
+	 * these areas are processed at full resolution.
+	 * The screening scale trades recall for speed: the higher it is, the
+	 * cheaper the screening and the smaller the candidate areas, but text
+	 * shorter than MIN_FONT_SIZE * screeningScale pixels is likely to be
+	 * missed.
+	 * @param rgbImg The input image in which to locate text.
+	 * @param screeningScale The scale down factor of the screening image.
+	 * @return All found text areas.
+	 * @throws IOException
+	 */
+	public static List<Rectangle> applyCoarseToFine(BufferedImage rgbImg,
+		int screeningScale) throws IOException {
+
+		Regions res = MultiresolutionTextPositionDetector.detectCoarseToFine(
+			AwtAdapter.toGrayImage(
+				rgbImg, GrayImage.DesaturationMethod.LUMINANCE
+			),
+			screeningScale
+		);
+
+		ImageDebug.print(rgbImg, res, "result");
+
+		return AwtAdapter.toRectangles(res);
+	}
+
 }
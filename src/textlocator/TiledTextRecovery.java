@@ -0,0 +1,278 @@
+package textlocator;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Propagation step of text recovery running on tiles of the image
+ * concurrently, see EdgeMap.recoverText.
+ * A pixel reached by the hysteresis mask only ever takes its value in the
+ * global edge map, and then spreads with that value, so the result is the
+ * set of pixels reachable from the labeled ones whatever the order of the
+ * propagations. Each tile propagates text inside itself and sends the
+ * pixels it reaches in other tiles to their owner. Rounds of propagation
+ * and exchange go on until no tile receives any pixel, which gives the same
+ * map as the sequential propagation.
+ * As after text labeling, the labeled pixels must hold their value in the
+ * global edge map or 0.
+ * @author MX-Futhark
+ */
+class TiledTextRecovery {
+
+	private static final int TILE_SIZE = 64;
+
+	// cancellation is checked every CHECK_PERIOD_MASK + 1 propagations
+	private static final int CHECK_PERIOD_MASK = 0x3FF;
+
+	private final GrayImage map;
+	private final GrayImage res;
+	private final int width, height, columns;
+	private final Tile[] tiles;
+	private final float[][] mask;
+	private final CancellationToken token;
+
+	private TiledTextRecovery(GrayImage map, GrayImage res,
+		DetectorConfig config, CancellationToken token) {
+
+		this.map = map;
+		this.res = res;
+		this.mask = config.getHysteresisWeights();
+		this.width = map.getWidth();
+		this.height = map.getHeight();
+		this.columns = (width + TILE_SIZE - 1) / TILE_SIZE;
+		this.token = token;
+
+		int rows = (height + TILE_SIZE - 1) / TILE_SIZE;
+		this.tiles = new Tile[columns * rows];
+		for (int r = 0; r < rows; ++r) {
+			for (int c = 0; c < columns; ++c) {
+				tiles[r * columns + c] = new Tile(
+					c * TILE_SIZE, r * TILE_SIZE,
+					Math.min((c + 1) * TILE_SIZE, width),
+					Math.min((r + 1) * TILE_SIZE, height)
+				);
+			}
+		}
+	}
+
+	/**
+	 * Propagates text from the labeled pixels to their neighbours, on the
+	 * common pool if it runs several threads, in the current thread
+	 * otherwise.
+	 * @param map The gray image after global thresholding.
+	 * @param res The gray image after text labeling, modified in place.
+	 * @param config The configuration giving the hysteresis mask.
+	 * @param token The token checked while processing the image.
+	 * @throws java.util.concurrent.CancellationException if the token is
+	 *         cancelled.
+	 */
+	public static void recoverText(GrayImage map, GrayImage res,
+		DetectorConfig config, CancellationToken token) {
+
+		// without parallelism, CompletableFuture starts a thread per task
+		recoverText(
+			map, res, config,
+			ForkJoinPool.getCommonPoolParallelism() > 1
+				? ForkJoinPool.commonPool()
+				: Runnable::run,
+			token
+		);
+	}
+
+	/**
+	 * Propagates text from the labeled pixels to their neighbours.
+	 * @param map The gray image after global thresholding.
+	 * @param res The gray image after text labeling, modified in place.
+	 * @param config The configuration giving the hysteresis mask.
+	 * @param executor The executor running the propagation of the tiles.
+	 * @param token The token checked while processing the image.
+	 * @throws java.util.concurrent.CancellationException if the token is
+	 *         cancelled.
+	 */
+	public static void recoverText(GrayImage map, GrayImage res,
+		DetectorConfig config, Executor executor, CancellationToken token) {
+
+		new TiledTextRecovery(map, res, config, token).run(executor);
+	}
+
+	private void run(Executor executor) {
+
+		boolean seeding = true;
+		boolean progresses;
+		do {
+			token.check();
+
+			CompletableFuture<?>[] rounds =
+				new CompletableFuture<?>[tiles.length];
+			int count = 0;
+			for (Tile tile : tiles) {
+				if (!seeding && tile.inbox.isEmpty()) continue;
+				boolean seed = seeding;
+				rounds[count++] = CompletableFuture.runAsync(
+					() -> tile.propagate(seed), executor
+				);
+			}
+			try {
+				CompletableFuture.allOf(Arrays.copyOf(rounds, count)).join();
+			} catch (CompletionException e) {
+				if (e.getCause() instanceof RuntimeException) {
+					throw (RuntimeException) e.getCause();
+				}
+				throw e;
+			}
+			seeding = false;
+
+			// boundary exchange, between rounds so that tiles only ever touch
+			// their own pixels
+			progresses = false;
+			for (Tile tile : tiles) {
+				for (int k = 0; k < tile.outbox.size(); ++k) {
+					int pixel = tile.outbox.get(k);
+					getOwner(pixel % width, pixel / width).inbox.push(pixel);
+					progresses = true;
+				}
+				tile.outbox.clear();
+			}
+		} while (progresses);
+	}
+
+	private Tile getOwner(int x, int y) {
+		return tiles[(y / TILE_SIZE) * columns + x / TILE_SIZE];
+	}
+
+	/**
+	 * Part of the image whose pixels are only modified by its own
+	 * propagation.
+	 * @author MX-Futhark
+	 */
+	private class Tile {
+
+		private final int minX, minY, maxX, maxY;
+		// pixels packed as y * width + x
+		private final PixelStack pending = new PixelStack();
+		private final PixelStack inbox = new PixelStack();
+		private final PixelStack outbox = new PixelStack();
+		private int propagations = 0;
+
+		public Tile(int minX, int minY, int maxX, int maxY) {
+			this.minX = minX;
+			this.minY = minY;
+			this.maxX = maxX;
+			this.maxY = maxY;
+		}
+
+		// propagates from the labeled pixels of the tile, or from the pixels
+		// received from the other tiles
+		public void propagate(boolean seed) {
+
+			if (seed) {
+				for (int j = minY; j < maxY; ++j) {
+					for (int i = minX; i < maxX; ++i) {
+						if (res.getValue(i, j) > 0) {
+							pending.push(j * width + i);
+						}
+					}
+				}
+			}
+
+			// the sender already checked the hysteresis mask
+			for (int k = 0; k < inbox.size(); ++k) {
+				int pixel = inbox.get(k),
+					x = pixel % width, y = pixel / width,
+					value = map.getValue(x, y);
+				if (res.getValue(x, y) != value) {
+					res.setValue(x, y, value);
+					if (value > 0) {
+						pending.push(pixel);
+					}
+				}
+			}
+			inbox.clear();
+
+			while (!pending.isEmpty()) {
+				if ((++propagations & CHECK_PERIOD_MASK) == 0) {
+					token.check();
+				}
+				int pixel = pending.pop();
+				applyHysteresisMask(pixel % width, pixel / width);
+			}
+		}
+
+		// same as EdgeMap.applyHysteresisMask, the pixels of other tiles
+		// being sent to them
+		private void applyHysteresisMask(int x, int y) {
+
+			int maskOffset = mask.length / 2;
+
+			int postLocalThresholdValue = res.getValue(x, y);
+
+			for (int j = -maskOffset; j <= maskOffset; ++j) {
+
+				if (y + j < 0 || y + j >= height) continue;
+
+				for (int i = -maskOffset; i <= maskOffset; ++i) {
+
+					if (x + i < 0 || x + i >= width) continue;
+					int value = map.getValue(x + i, y + j);
+
+					if (value < postLocalThresholdValue
+						* mask[j + maskOffset][i + maskOffset]) {
+
+						continue;
+					}
+					if (x + i < minX || x + i >= maxX
+						|| y + j < minY || y + j >= maxY) {
+
+						outbox.push((y + j) * width + x + i);
+					} else if (res.getValue(x + i, y + j) != value) {
+						res.setValue(x + i, y + j, value);
+						if (value > 0) {
+							pending.push((y + j) * width + x + i);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Growable stack of packed pixels.
+	 * @author MX-Futhark
+	 */
+	private static class PixelStack {
+
+		private int[] pixels = new int[16];
+		private int size = 0;
+
+		public void push(int pixel) {
+			if (size == pixels.length) {
+				pixels = Arrays.copyOf(pixels, 2 * size);
+			}
+			pixels[size++] = pixel;
+		}
+
+		public int pop() {
+			return pixels[--size];
+		}
+
+		public int get(int i) {
+			return pixels[i];
+		}
+
+		public int size() {
+			return size;
+		}
+
+		public boolean isEmpty() {
+			return size == 0;
+		}
+
+		public void clear() {
+			size = 0;
+		}
+	}
+
+}
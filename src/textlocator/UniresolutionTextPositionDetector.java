@@ -1,67 +1,119 @@
 package textlocator;
 
-import java.awt.Rectangle;
-import java.util.LinkedList;
-import java.util.List;
-
 /**
  * Locates text area at a given image resolution. See section IV.B
  * NOTE: 1. only a rough outline of the algorithm is provided and certain
  *          parts had to be outright guessed.
- *       2. this class assumes that the text is horizontal
+ *       2. this class assumes that the text is horizontal, vertical text
+ *          is found on the transposed edge map
  * @author MX-Futhark
  */
 class UniresolutionTextPositionDetector {
 
+	// default values, see DetectorConfig
 	// TODO: not ideal to rely on a factor to discriminate peaks from valleys
 	// find several strategies and compare them
-	private static final float PEAK_VALLEY_THRESHOLD_FACTOR = 0.1f;
-	private static final int HORIZONTAL_PEAK_ABS_MIN_THRESHOLD = 2048;
-	private static final int VERTICAL_PEAK_ABS_MIN_THRESHOLD = 256;
+	static final float PEAK_VALLEY_THRESHOLD_FACTOR = 0.1f;
+	static final int HORIZONTAL_PEAK_ABS_MIN_THRESHOLD = 2048;
+	static final int VERTICAL_PEAK_ABS_MIN_THRESHOLD = 256;
 
-	private static final int HORIZONTAL_MERGEABLE_HOLE_SIZE = 1;
-	private static final int VERTICAL_MERGEABLE_HOLE_SIZE = 4;
+	static final int HORIZONTAL_MERGEABLE_HOLE_SIZE = 1;
+	static final int VERTICAL_MERGEABLE_HOLE_SIZE = 4;
 
-	private static final int MIN_FONT_SIZE = 8;
-	private static final int MAX_FONT_SIZE = 24;
-	private static final float MIN_CHAR_ASPECT_RATIO = 1.0f;
+	static final int MIN_FONT_SIZE = 8;
+	static final int MAX_FONT_SIZE = 24;
+	static final float MIN_CHAR_ASPECT_RATIO = 1.0f;
 
 	/**
 	 * Detects text region in an edge map. See Fig6.
 	 * @param edgeMap The already computed edge map.
 	 * @return All text regions found in the edge map.
 	 */
-	public static List<Rectangle> getRegions(GrayImage edgeMap) {
+	public static Regions getRegions(GrayImage edgeMap) {
+		return getRegions(edgeMap, CancellationToken.NONE);
+	}
 
-		List<Rectangle>
-			regionsQueue = new LinkedList<>(),
-			validRegions = new LinkedList<>(),
-			tentativeHorizontalRegions = new LinkedList<>(),
-			tentativeVerticalRegions = new LinkedList<>();
+	/**
+	 * Detects text region in an edge map. See Fig6.
+	 * @param edgeMap The already computed edge map.
+	 * @param token The token checked before processing each region. Once it
+	 *              is cancelled, the regions found so far are returned.
+	 * @return The text regions found in the edge map.
+	 */
+	public static Regions getRegions(GrayImage edgeMap,
+		CancellationToken token) {
+
+		return getRegions(edgeMap, null, null, token);
+	}
+
+	/**
+	 * Detects text region in an edge map whose projections are already known,
+	 * so that the root region is not read again. See Fig6.
+	 * @param edgeMap The already computed edge map.
+	 * @param rowSums The sum of each row of the edge map, or null.
+	 * @param columnSums The sum of each column of the edge map, or null.
+	 * @param token The token checked before processing each region. Once it
+	 *              is cancelled, the regions found so far are returned.
+	 * @return The text regions found in the edge map.
+	 */
+	public static Regions getRegions(GrayImage edgeMap, int[] rowSums,
+		int[] columnSums, CancellationToken token) {
 
-		regionsQueue.add(
-			new Rectangle(edgeMap.getWidth(), edgeMap.getHeight())
+		return getRegions(
+			edgeMap, rowSums, columnSums, DetectorConfig.DEFAULT, token
 		);
+	}
+
+	/**
+	 * Detects text region in an edge map whose projections are already known,
+	 * with the thresholds of a configuration. See Fig6.
+	 * @param edgeMap The already computed edge map.
+	 * @param rowSums The projection of each row of the edge map, as computed
+	 *                by the configuration, or null.
+	 * @param columnSums The projection of each column of the edge map, as
+	 *                   computed by the configuration, or null.
+	 * @param config The configuration of the detection.
+	 * @param token The token checked before processing each region. Once it
+	 *              is cancelled, the regions found so far are returned.
+	 * @return The text regions found in the edge map.
+	 */
+	public static Regions getRegions(GrayImage edgeMap, int[] rowSums,
+		int[] columnSums, DetectorConfig config, CancellationToken token) {
 
-		while (!regionsQueue.isEmpty()) {
+		// regions before queueHead have already been processed
+		Regions regionsQueue = new Regions(), validRegions = new Regions();
+		int queueHead = 0;
 
-			Rectangle region = regionsQueue.remove(0);
-			tentativeHorizontalRegions =
-				getHorizontalSubRegions(edgeMap, region);
+		regionsQueue.add(0, 0, edgeMap.getWidth(), edgeMap.getHeight());
 
-			for (Rectangle hSubRegion : tentativeHorizontalRegions) {
+		while (queueHead < regionsQueue.size() && !token.isCancelled()) {
 
-				boolean hIndivisible = hSubRegion.equals(region);
-				tentativeVerticalRegions =
-					getVerticalSubRegions(edgeMap, hSubRegion, hIndivisible);
+			// the first region is the whole map
+			int region = queueHead++;
+			Regions tentativeHorizontalRegions = getHorizontalSubRegions(
+				edgeMap, regionsQueue, region, region == 0 ? rowSums : null,
+				config
+			);
 
-				for (Rectangle vSubRegion : tentativeVerticalRegions) {
+			for (int h = 0; h < tentativeHorizontalRegions.size(); ++h) {
+
+				boolean hIndivisible = equals(
+					tentativeHorizontalRegions, h, regionsQueue, region
+				);
+				Regions tentativeVerticalRegions = getVerticalSubRegions(
+					edgeMap, tentativeHorizontalRegions, h, hIndivisible,
+					region == 0 && hIndivisible ? columnSums : null, config
+				);
+
+				for (int v = 0; v < tentativeVerticalRegions.size(); ++v) {
 
 					// indivisible region
-					if (vSubRegion.equals(hSubRegion)) {
-						validRegions.add(vSubRegion);
+					if (equals(tentativeVerticalRegions, v,
+						tentativeHorizontalRegions, h)) {
+
+						validRegions.add(tentativeVerticalRegions, v);
 					} else {
-						regionsQueue.add(vSubRegion);
+						regionsQueue.add(tentativeVerticalRegions, v);
 					}
 				}
 			}
@@ -70,13 +122,90 @@ class UniresolutionTextPositionDetector {
 		return validRegions;
 	}
 
-	private static int[] getProjection(GrayImage edgeMap,
-		Rectangle region, boolean horizontal) {
+	/**
+	 * Tells whether an edge map may contain text once scaled down, based on
+	 * the sums of its rows only. As local thresholding can only remove edges,
+	 * a text area requires MIN_FONT_SIZE consecutive scaled rows (allowing
+	 * mergeable holes) whose sum reaches the minimal horizontal peak.
+	 * @param rowSums The sum of each row of the edge map at full resolution.
+	 * @param scaleDownFactor The factor by which the edge map is scaled down.
+	 * @return False if no text area can be found at that resolution.
+	 */
+	public static boolean mayContainText(int[] rowSums,
+		float scaleDownFactor) {
+
+		return mayContainText(rowSums, scaleDownFactor, DetectorConfig.DEFAULT);
+	}
+
+	/**
+	 * Tells whether an edge map may contain text once scaled down, with the
+	 * thresholds of a configuration. See mayContainText(int[], float).
+	 * When edge pixels are counted, a scaled pixel is an edge only if one of
+	 * the pixels it averages is, and each pixel is averaged into at most two
+	 * scaled columns.
+	 * @param rowSums The projection of each row of the edge map at full
+	 *                resolution, as computed by the configuration.
+	 * @param scaleDownFactor The factor by which the edge map is scaled down.
+	 * @param config The configuration of the detection.
+	 * @return False if no text area can be found at that resolution.
+	 */
+	public static boolean mayContainText(int[] rowSums,
+		float scaleDownFactor, DetectorConfig config) {
+
+		boolean counted =
+			config.getProjection() == DetectorConfig.Projection.EDGE_COUNT;
+		int scaledHeight = (int) (rowSums.length / scaleDownFactor),
+			runStart = -1, lastPeak = -1;
+
+		for (int r = 0; r < scaledHeight; ++r) {
+
+			// each scaled pixel is the average of a factor x factor block
+			float start = r * scaleDownFactor,
+				end = (r + 1) * scaleDownFactor,
+				total = 0;
+			for (int y = (int) start; y < end && y < rowSums.length; ++y) {
+				total += counted
+					? 2 * rowSums[y]
+					: rowSums[y] * (Math.min(end, y + 1) - Math.max(start, y));
+			}
+			if ((counted ? total : total / (scaleDownFactor * scaleDownFactor))
+				< config.getHorizontalPeakProjectionThreshold()) {
+
+				continue;
+			}
+
+			if (lastPeak < 0 || r - lastPeak - 1
+				> config.getHorizontalMergeableHoleSize()) {
+
+				runStart = r;
+			}
+			lastPeak = r;
+			if (r - runStart + 1 >= config.getMinFontSize()) {
+				return true;
+			}
+		}
 
-		int aMin = (int) (horizontal ? region.getY() : region.getX()),
-			bMin = (int) (horizontal ? region.getX() : region.getY()),
-			aLen = (int) (horizontal ? region.getHeight() : region.getWidth()),
-			bLen = (int) (horizontal ? region.getWidth() : region.getHeight()),
+		return false;
+	}
+
+	private static boolean equals(Regions a, int i, Regions b, int j) {
+		return a.getX(i) == b.getX(j) && a.getY(i) == b.getY(j)
+			&& a.getWidth(i) == b.getWidth(j)
+			&& a.getHeight(i) == b.getHeight(j);
+	}
+
+	private static int[] getProjection(GrayImage edgeMap,
+		Regions regions, int region, boolean horizontal,
+		DetectorConfig config) {
+
+		int aMin = horizontal ? regions.getY(region) : regions.getX(region),
+			bMin = horizontal ? regions.getX(region) : regions.getY(region),
+			aLen = horizontal
+				? regions.getHeight(region)
+				: regions.getWidth(region),
+			bLen = horizontal
+				? regions.getWidth(region)
+				: regions.getHeight(region),
 			ind = 0;
 
 		int[] res = new int[aLen];
@@ -84,10 +213,9 @@ class UniresolutionTextPositionDetector {
 		for (int a = aMin; a < aMin + aLen; ++a) {
 			int total = 0;
 			for (int b = bMin; b < bMin + bLen; ++b) {
-				// TODO other possible strategy: counting edge pixels instead of
-				//      taking their value into account
-				total +=
-					edgeMap.getValue(horizontal ? b : a, horizontal ? a : b);
+				total += config.getProjectionValue(
+					edgeMap.getValue(horizontal ? b : a, horizontal ? a : b)
+				);
 			}
 			res[ind] = total;
 			++ind;
@@ -97,40 +225,37 @@ class UniresolutionTextPositionDetector {
 	}
 
 	// TODO: do without this, try not to split regions in the first place
-	private static List<Rectangle> mergeSubRegions(List<Rectangle> subRegions,
-		boolean horizontal, boolean wasHorizontalIndivisible) {
-
-		List<Rectangle> res = new LinkedList<>();
+	private static Regions mergeSubRegions(Regions subRegions,
+		boolean horizontal, boolean wasHorizontalIndivisible,
+		DetectorConfig config) {
 
-		boolean mergeProgresses;
+		Regions res = new Regions(subRegions.size());
 
-		// merge regions with negligible holes
-		Rectangle previousSubRegion = null, currentSubRegion = null;
-		for (Rectangle subRegion : subRegions) {
+		// merge regions with negligible holes into the last region of res
+		for (int i = 0; i < subRegions.size(); ++i) {
 
-			mergeProgresses = false;
-			currentSubRegion = subRegion;
+			boolean mergeProgresses = false;
+			int previous = res.size() - 1;
 
-			if (previousSubRegion != null) {
+			if (previous >= 0) {
 				if (horizontal) {
-					if (subRegion.getY() - (previousSubRegion.getY()
-							+ previousSubRegion.getHeight())
-						<= HORIZONTAL_MERGEABLE_HOLE_SIZE) {
+					if (subRegions.getY(i) - res.getMaxY(previous)
+						<= config.getHorizontalMergeableHoleSize()) {
 
 						mergeProgresses = true;
 					}
 				} else {
 
 					double valleyWidth =
-						subRegion.getX() - (previousSubRegion.getX()
-						+ previousSubRegion.getWidth());
-					double subRegionHeight = subRegion.getHeight();
+						subRegions.getX(i) - res.getMaxX(previous);
+					double subRegionHeight = subRegions.getHeight(i);
 
-					if (valleyWidth <= VERTICAL_MERGEABLE_HOLE_SIZE
+					if (valleyWidth <= config.getVerticalMergeableHoleSize()
 						|| (wasHorizontalIndivisible
-							&& subRegionHeight >= MIN_FONT_SIZE
-							&& subRegionHeight <= MAX_FONT_SIZE
-							&& valleyWidth < 1.5 * MIN_CHAR_ASPECT_RATIO
+							&& subRegionHeight >= config.getMinFontSize()
+							&& subRegionHeight <= config.getMaxFontSize()
+							&& valleyWidth < 1.5
+								* config.getMinCharAspectRatio()
 								* subRegionHeight)) {
 
 						mergeProgresses = true;
@@ -138,27 +263,30 @@ class UniresolutionTextPositionDetector {
 				}
 			}
 			if (mergeProgresses) {
-				previousSubRegion =
-					previousSubRegion.union(subRegion);
-				currentSubRegion = previousSubRegion;
-			} else if (previousSubRegion != null) {
-				res.add(previousSubRegion);
+				int minX = Math.min(res.getX(previous), subRegions.getX(i)),
+					minY = Math.min(res.getY(previous), subRegions.getY(i)),
+					maxX = Math.max(res.getMaxX(previous),
+						subRegions.getMaxX(i)),
+					maxY = Math.max(res.getMaxY(previous),
+						subRegions.getMaxY(i));
+				res.set(previous, minX, minY, maxX - minX, maxY - minY);
+			} else {
+				res.add(subRegions, i);
 			}
-			previousSubRegion = currentSubRegion;
-		}
-		if (previousSubRegion != null) {
-			res.add(previousSubRegion);
 		}
 
 		return res;
 
 	}
 
-	private static List<Rectangle> getSubRegions(GrayImage edgeMap,
-		Rectangle region, boolean horizontal,
-		boolean wasHorizontalIndivisible) {
+	private static Regions getSubRegions(GrayImage edgeMap,
+		Regions regions, int region, boolean horizontal,
+		boolean wasHorizontalIndivisible, int[] knownProjection,
+		DetectorConfig config) {
 
-		int[] projection = getProjection(edgeMap, region, horizontal);
+		int[] projection = knownProjection != null
+			? knownProjection
+			: getProjection(edgeMap, regions, region, horizontal, config);
 		int min = Integer.MAX_VALUE, max = 0;
 
 		// TODO: local thresholding with a window of size 2*MAX_FONT_SIZE,
@@ -173,15 +301,15 @@ class UniresolutionTextPositionDetector {
 		}
 
 		int threshold = Math.max(
-			(int)(min + (max - min) * PEAK_VALLEY_THRESHOLD_FACTOR),
+			(int)(min + (max - min) * config.getPeakValleyThresholdFactor()),
 			horizontal
-				? HORIZONTAL_PEAK_ABS_MIN_THRESHOLD
-				: VERTICAL_PEAK_ABS_MIN_THRESHOLD
+				? config.getHorizontalPeakProjectionThreshold()
+				: config.getVerticalPeakProjectionThreshold()
 		);
 
 
 		int i = 0, regionStart = 0;
-		List<Rectangle> subRegions = new LinkedList<>();
+		Regions subRegions = new Regions();
 
 		while(i < projection.length) {
 
@@ -192,51 +320,58 @@ class UniresolutionTextPositionDetector {
 			while (i < projection.length && projection[i] >= threshold) ++i;
 
 			if (regionStart < projection.length) {
-				subRegions.add(new Rectangle(
-					(int) region.getX() + (horizontal ? 0 : regionStart),
-					(int) region.getY() + (horizontal ? regionStart : 0),
-					horizontal ? (int) region.getWidth() : i - regionStart,
-					horizontal ? i - regionStart : (int) region.getHeight()
-				));
+				subRegions.add(
+					regions.getX(region) + (horizontal ? 0 : regionStart),
+					regions.getY(region) + (horizontal ? regionStart : 0),
+					horizontal ? regions.getWidth(region) : i - regionStart,
+					horizontal ? i - regionStart : regions.getHeight(region)
+				);
 			}
 		}
 
-		return
-			mergeSubRegions(subRegions, horizontal, wasHorizontalIndivisible);
+		return mergeSubRegions(
+			subRegions, horizontal, wasHorizontalIndivisible, config
+		);
 	}
 
-	private static List<Rectangle> getHorizontalSubRegions(GrayImage edgeMap,
-		Rectangle region) {
+	private static Regions getHorizontalSubRegions(GrayImage edgeMap,
+		Regions regions, int region, int[] knownProjection,
+		DetectorConfig config) {
 
-		List<Rectangle>
-			subRegions = getSubRegions(edgeMap, region, true, false),
-			res = new LinkedList<>();
+		Regions
+			subRegions = getSubRegions(
+				edgeMap, regions, region, true, false, knownProjection, config
+			),
+			res = new Regions(subRegions.size());
 
-		for (Rectangle subRegion : subRegions) {
-			if (subRegion.getHeight() < MIN_FONT_SIZE) continue;
-			res.add(subRegion);
+		for (int i = 0; i < subRegions.size(); ++i) {
+			if (subRegions.getHeight(i) < config.getMinFontSize()) continue;
+			res.add(subRegions, i);
 		}
 
 		return res;
 	}
 
-	private static List<Rectangle> getVerticalSubRegions(GrayImage edgeMap,
-		Rectangle region, boolean wasHorizontalIndivisible) {
+	private static Regions getVerticalSubRegions(GrayImage edgeMap,
+		Regions regions, int region, boolean wasHorizontalIndivisible,
+		int[] knownProjection, DetectorConfig config) {
 
-		List<Rectangle>
-			subRegions =
-				getSubRegions(edgeMap, region, false, wasHorizontalIndivisible),
-			res = new LinkedList<>();
+		Regions
+			subRegions = getSubRegions(
+				edgeMap, regions, region, false, wasHorizontalIndivisible,
+				knownProjection, config
+			),
+			res = new Regions(subRegions.size());
 
-		for (Rectangle subRegion : subRegions) {
+		for (int i = 0; i < subRegions.size(); ++i) {
 
-			double height = subRegion.getHeight(),
-				width = subRegion.getWidth();
+			double height = subRegions.getHeight(i),
+				width = subRegions.getWidth(i);
 
-			if (height <= MAX_FONT_SIZE
-				&& width >= height * MIN_CHAR_ASPECT_RATIO) {
+			if (height <= config.getMaxFontSize()
+				&& width >= height * config.getMinCharAspectRatio()) {
 
-				res.add(subRegion);
+				res.add(subRegions, i);
 			}
 		}
 